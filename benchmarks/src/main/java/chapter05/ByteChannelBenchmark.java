@@ -0,0 +1,130 @@
+package chapter05;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Megabytes per second moved from a writer thread to a reader thread, in chunks of 64 KB: through the piped
+ * streams MissionB used to have, through a {@link RingChannel}, and by handing buffers over with a
+ * {@link BufferHandoff}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteChannelBenchmark {
+
+    private static final int MEGABYTES = 64;
+    private static final int CHUNK = 64 * 1024;
+    private static final int CHUNKS = MEGABYTES * (1 << 20) / CHUNK;
+
+    private static final int RING_CAPACITY = 1 << 20;
+    private static final int HANDOFF_BUFFERS = 16;
+
+    @Param({"piped", "ring", "handoff"})
+    private String channel;
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public long transfer() throws Exception {
+        return switch (channel) {
+            case "piped" -> transferPiped();
+            case "ring" -> transferRing();
+            case "handoff" -> transferHandoff();
+            default -> throw new IllegalArgumentException("Unknown channel: " + channel);
+        };
+    }
+
+    private long transferPiped() throws Exception {
+        PipedOutputStream output = new PipedOutputStream();
+        PipedInputStream input = new PipedInputStream(output);
+        Thread writer = start(() -> {
+            byte[] chunk = new byte[CHUNK];
+            for (int i = 0; i < CHUNKS; i++) {
+                output.write(chunk);
+            }
+            output.close();
+        });
+
+        byte[] buffer = new byte[CHUNK];
+        long received = 0;
+        for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+            received += read;
+        }
+        writer.join();
+        return received;
+    }
+
+    private long transferRing() throws Exception {
+        RingChannel ring = new RingChannel(RING_CAPACITY);
+        Thread writer = start(() -> {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK);
+            for (int i = 0; i < CHUNKS; i++) {
+                ring.sink().write(chunk.clear());
+            }
+            ring.sink().close();
+        });
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK);
+        long received = 0;
+        for (int read = ring.source().read(buffer); read != -1; read = ring.source().read(buffer.clear())) {
+            received += read;
+        }
+        writer.join();
+        return received;
+    }
+
+    private long transferHandoff() throws Exception {
+        BufferHandoff handoff = new BufferHandoff(HANDOFF_BUFFERS, CHUNK);
+        Thread writer = start(() -> {
+            for (int i = 0; i < CHUNKS; i++) {
+                // The writer would fill the buffer where the others copy their chunk
+                ByteBuffer buffer = handoff.acquire();
+                handoff.send(buffer.position(buffer.limit()).flip());
+            }
+            handoff.close();
+        });
+
+        long received = 0;
+        for (ByteBuffer buffer = handoff.receive(); buffer != null; buffer = handoff.receive()) {
+            received += buffer.remaining();
+            handoff.release(buffer);
+        }
+        writer.join();
+        return received;
+    }
+
+    private interface Work {
+
+        void run() throws IOException, InterruptedException;
+    }
+
+    private static Thread start(Work work) {
+        Thread thread = new Thread(() -> {
+            try {
+                work.run();
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, "Writer");
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,42 @@
+package chapter05;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Candidates hashed and checked per microsecond, on a range that does not contain the password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MissionEBenchmark {
+
+    private static final int CANDIDATES = 10_000;
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public String hashChunk() {
+        return MissionE.crackRange(new MissionE.Chunk(0, CANDIDATES - 1), new MissionE.Search(), false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    @Threads(Threads.MAX)
+    public String hashChunkOnAllCores() {
+        return MissionE.crackRange(new MissionE.Chunk(0, CANDIDATES - 1), new MissionE.Search(), false);
+    }
+}
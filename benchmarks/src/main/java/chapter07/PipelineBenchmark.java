@@ -0,0 +1,67 @@
+package chapter07;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes batches of washloads through the washer, dryer and folder with zero washing, drying and
+ * folding time, which leaves the cost of the queue hand-offs between the stages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private final BlockingQueue<MissionA.Washload> toBeWashed = new LinkedBlockingQueue<>(BATCH);
+    private final BlockingQueue<MissionA.Washload> folded = new LinkedBlockingQueue<>(BATCH);
+
+    @Setup
+    public void setUp() {
+        // The stages report every washload, which would otherwise flood the benchmark output
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        BlockingQueue<MissionA.Washload> toBeDried = new LinkedBlockingQueue<>(BATCH);
+        BlockingQueue<MissionA.Washload> toBeFolded = new LinkedBlockingQueue<>(BATCH);
+
+        Thread[] stages = {
+            new MissionA.Washer(toBeWashed, toBeDried, 0L),
+            new MissionA.Dryer(toBeDried, toBeFolded, 0L),
+            new MissionA.Folder(toBeFolded, folded, 0L)
+        };
+        for (Thread stage : stages) {
+            stage.setDaemon(true);
+            stage.start();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void washDryFold() throws InterruptedException {
+        for (int number = 0; number < BATCH; number++) {
+            toBeWashed.put(new MissionA.Washload(number));
+        }
+        for (int i = 0; i < BATCH; i++) {
+            folded.take();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package chapter07;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes bursts of items through three stages that do nothing, on a {@link PipelineEngine} handing on single
+ * items ({@code maxBatchSize} 1) or batches. Besides the throughput, every iteration prints the latency of its
+ * items from submit to the end of the last stage, to compare their p99.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineEngineBenchmark {
+
+    private static final int BURST = 1000;
+
+    @Param({"1", "16", "256"})
+    private int maxBatchSize;
+
+    private PipelineEngine<Integer, Integer> engine;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        engine = PipelineEngine.<Integer>builder()
+            .stage("Washer", item -> item, 1)
+            .stage("Dryer", item -> item, 1)
+            .stage("Folder", item -> item, 1)
+            .queueCapacity(BURST)
+            .batching(maxBatchSize, 20, TimeUnit.MICROSECONDS)
+            .monitorInterval(0, TimeUnit.SECONDS)
+            .build();
+        engine.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        engine.close();
+        while (engine.take() != null) {
+            // Only waiting for the end of the stream
+        }
+        System.out.println(engine.completion().join());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        for (int i = 0; i < BURST; i++) {
+            engine.submit(i);
+        }
+        for (int i = 0; i < BURST; i++) {
+            engine.take();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package chapter08.missionA;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread runs the {@link ATM} transaction, a deposit followed by a withdrawal, on one shared account.
+ * Run with {@code -t} to change the amount of contention, or run {@link #main} to compare the accounts
+ * at 1, 8, 64 and 1000 threads. The journaled account keeps its files in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class BankAccountBenchmark {
+
+    private static final long AMOUNT = 10L;
+    private static final int[] THREAD_COUNTS = {1, 8, 64, 1000};
+
+    @Param({"synced", "lock-free", "journaled"})
+    private String type;
+
+    private BankAccount account;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        account = switch (type) {
+            case "synced" -> new SyncedBankAccount();
+            case "lock-free" -> new LockFreeBankAccount();
+            case "journaled" -> new JournaledBankAccount(directory = Files.createTempDirectory("bank-account"));
+            default -> throw new IllegalArgumentException("Unknown account type: " + type);
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (account instanceof JournaledBankAccount journaled) {
+            journaled.close();
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public void depositThenWithdraw() {
+        account.deposit(AMOUNT);
+        account.withdraw(AMOUNT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            Options options = new OptionsBuilder()
+                .include(BankAccountBenchmark.class.getSimpleName())
+                .threads(threads)
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package chapter08.missionA;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread moves money between random accounts of one shared {@link Ledger}, either one
+ * {@link Ledger#transfer} at a time or {@link #BATCH_SIZE} transfers per {@link Ledger#transferAll}.
+ * Scores are transfers per microsecond in both cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class LedgerBenchmark {
+
+    private static final int ACCOUNTS = 1 << 20;
+    private static final long INITIAL_BALANCE = 1_000_000L;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1", "64"})
+    private int shards;
+
+    private Ledger ledger;
+
+    @Setup
+    public void setUp() {
+        ledger = new Ledger(ACCOUNTS, shards);
+        for (int account = 0; account < ACCOUNTS; account++) {
+            ledger.deposit(account, INITIAL_BALANCE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Transfers {
+
+        private final SplittableRandom random = new SplittableRandom();
+        private final Ledger.TransferBatch batch = new Ledger.TransferBatch(BATCH_SIZE);
+
+        int nextAccount() {
+            return random.nextInt(ACCOUNTS);
+        }
+    }
+
+    @Benchmark
+    public void transfer(Transfers transfers) {
+        ledger.transfer(transfers.nextAccount(), transfers.nextAccount(), 1L);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int transferAll(Transfers transfers) {
+        Ledger.TransferBatch batch = transfers.batch;
+        batch.clear();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(transfers.nextAccount(), transfers.nextAccount(), 1L);
+        }
+        return ledger.transferAll(batch);
+    }
+}
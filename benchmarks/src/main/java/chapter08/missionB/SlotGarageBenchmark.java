@@ -0,0 +1,58 @@
+package chapter08.missionB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 64 drivers park and leave one shared {@link SlotGarage}. With fewer spots than drivers they also wait for each other,
+ * which is where the fairness of the semaphore shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class SlotGarageBenchmark {
+
+    private static final AtomicInteger DRIVERS = new AtomicInteger();
+
+    @Param({"16", "10000"})
+    private int spots;
+
+    @Param({"false", "true"})
+    private boolean fair;
+
+    private SlotGarage garage;
+
+    @Setup
+    public void setUp() {
+        garage = new SlotGarage(spots, fair);
+    }
+
+    @State(Scope.Thread)
+    public static class Driver {
+
+        private final String carName = "Car #" + DRIVERS.incrementAndGet();
+    }
+
+    @Benchmark
+    public int enterThenExit(Driver driver) {
+        garage.enter(driver.carName);
+        return garage.exit(driver.carName);
+    }
+}
@@ -0,0 +1,77 @@
+package chapter09.missionB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread moves {@link #BATCH_SIZE} items through one shared buffer per invocation, either one put and one take
+ * at a time or with one {@link BoundedBuffer#putAll} followed by {@link BoundedBuffer#takeAll} until it got as many
+ * items back. Scores count items. The capacity is never below the batch size, so that a whole batch can be put.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class BoundedBufferBatchBenchmark {
+
+    private static final String ITEM = "item";
+    private static final int BATCH_SIZE = 64;
+    private static final List<String> BATCH = Collections.nCopies(BATCH_SIZE, ITEM);
+
+    @Param({"64", "1024"})
+    private int capacity;
+
+    private BoundedBuffer<String> buffer;
+
+    @Setup
+    public void setUp() {
+        buffer = new BoundedBuffer<>(capacity);
+    }
+
+    @State(Scope.Thread)
+    public static class Sink {
+
+        private final List<String> items = new ArrayList<>(BATCH_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String putThenTake() throws InterruptedException {
+        String item = null;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            buffer.put(ITEM);
+            item = buffer.take();
+        }
+        return item;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<String> putAllThenTakeAll(Sink sink) throws InterruptedException {
+        sink.items.clear();
+        buffer.putAll(BATCH);
+        while (sink.items.size() < BATCH_SIZE) {
+            buffer.takeAll(sink.items, BATCH_SIZE - sink.items.size());
+        }
+        return sink.items;
+    }
+}
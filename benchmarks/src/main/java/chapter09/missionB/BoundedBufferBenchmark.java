@@ -0,0 +1,49 @@
+package chapter09.missionB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread is producer and consumer at once: it puts an item and then takes one.
+ * Each take is matched by an earlier put of the same thread, so no thread can wait forever,
+ * even when the benchmark stops them at the end of an iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class BoundedBufferBenchmark {
+
+    private static final String ITEM = "item";
+
+    @Param({"5", "1024"})
+    private int capacity;
+
+    private BoundedBuffer<String> buffer;
+
+    @Setup
+    public void setUp() {
+        buffer = new BoundedBuffer<>(capacity);
+    }
+
+    @Benchmark
+    public String putThenTake() throws InterruptedException {
+        buffer.put(ITEM);
+        return buffer.take();
+    }
+}
@@ -0,0 +1,101 @@
+package chapter09.missionB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separate producer and consumer threads share one buffer, 1 to 1, 4 to 4 and 16 to 16.
+ * Scores are per group, so they count items put plus items taken.
+ * <p>
+ * Puts and takes give up after {@link #TIMEOUT_MILLIS}: at the end of an iteration the threads of one side stop
+ * first, and the other side would otherwise wait for them forever.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProducerConsumerBenchmark {
+
+    private static final String ITEM = "item";
+    private static final long TIMEOUT_MILLIS = 10L;
+
+    @Param({"1024"})
+    private int capacity;
+
+    @Param({"semaphore", "spin", "yield", "park"})
+    private String buffer;
+
+    private ProducerConsumerBuffer<String> items;
+
+    @Setup
+    public void setUp() {
+        items = buffer.equals("semaphore")
+            ? new BoundedBuffer<>(capacity)
+            : new RingBuffer<>(capacity, RingBuffer.WaitStrategy.valueOf(buffer.toUpperCase()));
+    }
+
+    @Benchmark
+    @Group("oneToOne")
+    @GroupThreads(1)
+    public boolean put1() throws InterruptedException {
+        return put();
+    }
+
+    @Benchmark
+    @Group("oneToOne")
+    @GroupThreads(1)
+    public String take1() throws InterruptedException {
+        return take();
+    }
+
+    @Benchmark
+    @Group("fourToFour")
+    @GroupThreads(4)
+    public boolean put4() throws InterruptedException {
+        return put();
+    }
+
+    @Benchmark
+    @Group("fourToFour")
+    @GroupThreads(4)
+    public String take4() throws InterruptedException {
+        return take();
+    }
+
+    @Benchmark
+    @Group("sixteenToSixteen")
+    @GroupThreads(16)
+    public boolean put16() throws InterruptedException {
+        return put();
+    }
+
+    @Benchmark
+    @Group("sixteenToSixteen")
+    @GroupThreads(16)
+    public String take16() throws InterruptedException {
+        return take();
+    }
+
+    private boolean put() throws InterruptedException {
+        return items.offer(ITEM, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private String take() throws InterruptedException {
+        return items.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,64 @@
+package chapter09.missionC;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread reads the store and, once every {@code ratio} operations, increments it instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class CounterStoreBenchmark {
+
+    @Param({"rw-lock", "stamped", "seqlock"})
+    private String type;
+
+    @Param({"100", "10000"})
+    private int ratio;
+
+    private CounterStore store;
+
+    @Setup
+    public void setUp() {
+        store = switch (type) {
+            case "rw-lock" -> new ReadWriteLockStore();
+            case "stamped" -> new StampedLockStore();
+            case "seqlock" -> new SeqLockStore();
+            default -> throw new IllegalArgumentException("Unknown store: " + type);
+        };
+    }
+
+    @State(Scope.Thread)
+    public static class Operations {
+
+        private int count;
+    }
+
+    @Benchmark
+    public long readMostly(Operations operations) {
+        if (++operations.count == ratio) {
+            operations.count = 0;
+            store.increment();
+            return 0L;
+        }
+        CounterStore.Reading reading = store.read();
+        return reading.counter() + reading.updatedAtNanos();
+    }
+}
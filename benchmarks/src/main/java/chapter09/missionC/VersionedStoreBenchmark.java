@@ -0,0 +1,101 @@
+package chapter09.missionC;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Three readers look up two keys of a large catalogue, consistently, while a writer keeps updating random keys.
+ * The {@code rw-lock} store guards a {@link HashMap} with a read-write lock, so readers wait for every write;
+ * the {@code versioned} store lets them read the current {@link VersionedStore.Version} without waiting.
+ * Compare the read latency percentiles of both.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionedStoreBenchmark {
+
+    private static final int KEYS = 100_000;
+
+    @Param({"rw-lock", "versioned"})
+    private String store;
+
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private final Map<Integer, Long> lockedMap = new HashMap<>();
+    private final VersionedStore<Integer, Long> versionedStore = new VersionedStore<>(16);
+
+    @Setup
+    public void setUp() {
+        versionedStore.update(map -> {
+            for (int key = 0; key < KEYS; key++) {
+                map = map.put(key, 0L);
+                lockedMap.put(key, 0L);
+            }
+            return map;
+        });
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next() {
+            return random.nextInt(KEYS);
+        }
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public long read(Keys keys) {
+        int first = keys.next();
+        int second = keys.next();
+        if (store.equals("versioned")) {
+            VersionedStore.Version<Integer, Long> version = versionedStore.current();
+            return version.get(first) + version.get(second);
+        }
+        rwLock.readLock().lock();
+        try {
+            return lockedMap.get(first) + lockedMap.get(second);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void write(Keys keys) {
+        int key = keys.next();
+        if (store.equals("versioned")) {
+            versionedStore.update(map -> map.put(key, map.get(key) + 1));
+            return;
+        }
+        rwLock.writeLock().lock();
+        try {
+            lockedMap.merge(key, 1L, Long::sum);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+}
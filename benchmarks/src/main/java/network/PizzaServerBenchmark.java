@@ -0,0 +1,106 @@
+package network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Round-trip time of one order over loopback against the pizza servers of chapters 10 to 12.
+ * Each server runs inside the forked benchmark JVM, started through its own {@code main}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PizzaServerBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 12345;
+    // The kitchen of chapter 12 takes no time to cook zero pizzas
+    private static final byte[] ORDER = "0\n".getBytes();
+
+    @Param({"chapter10-platform", "chapter10-virtual", "chapter11-single", "chapter11-multi", "chapter12"})
+    private String server;
+
+    private Socket socket;
+    private OutputStream out;
+    private BufferedReader in;
+    private int linesPerOrder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        linesPerOrder = 1;
+        switch (server) {
+            case "chapter10-platform" -> start(chapter10.missionA.Main::main);
+            case "chapter10-virtual" -> start(chapter10.missionA.Main::main, "virtual-threads");
+            case "chapter11-single" -> start(chapter11.MissionA::main, "0");
+            case "chapter11-multi" -> start(chapter11.MissionA::main);
+            case "chapter12" -> {
+                start(chapter12.MissionA::main);
+                // The order is confirmed first, then reported ready
+                linesPerOrder = 2;
+            }
+            default -> throw new IllegalArgumentException("Unknown server: " + server);
+        }
+
+        socket = connect();
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        socket.close();
+    }
+
+    @Benchmark
+    public String order() throws IOException {
+        out.write(ORDER);
+        String response = null;
+        for (int i = 0; i < linesPerOrder; i++) {
+            response = in.readLine();
+        }
+        return response;
+    }
+
+    private static void start(Consumer<String[]> main, String... args) {
+        Thread thread = new Thread(() -> main.accept(args), "Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Socket connect() throws InterruptedException {
+        while (true) {
+            try {
+                return new Socket(HOST, PORT);
+            } catch (IOException e) {
+                // The server may not be listening yet
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package chapter05;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Cracks many SHA-256 hashes at once over a configurable password space.
+ * <p>
+ * Every candidate is hashed once and looked up in an open-addressing set of the target digests,
+ * so the cost per candidate does not grow with the number of targets. Workers take small ranges
+ * from a shared cursor and report each match as soon as it is found.
+ */
+public class BatchCracker {
+
+    private static final int NUM_PROCESSORS = Runtime.getRuntime().availableProcessors();
+    private static final long RANGE_SIZE = 1L << 14;
+
+    public record Match(String password, String hash) {
+    }
+
+    private final byte[] alphabet;
+    private final int[] positions = new int[128];
+    private final int minLength;
+    private final long[] lengthStarts;
+    private final DigestSet targets;
+    private final LongAdder candidates = new LongAdder();
+
+    /**
+     * @param alphabet     the ASCII characters a password is made of, without duplicates
+     * @param minLength    the shortest password length to try
+     * @param maxLength    the longest password length to try
+     * @param targetHashes hex encoded SHA-256 hashes to crack
+     */
+    public BatchCracker(String alphabet, int minLength, int maxLength, Collection<String> targetHashes) {
+        if (minLength < 1 || maxLength < minLength) {
+            throw new IllegalArgumentException("Invalid length range: " + minLength + ".." + maxLength);
+        }
+        if (alphabet.isEmpty() || alphabet.chars().anyMatch(c -> c > 127) || alphabet.chars().distinct().count() != alphabet.length()) {
+            throw new IllegalArgumentException("Alphabet must consist of distinct ASCII characters: " + alphabet);
+        }
+
+        this.alphabet = alphabet.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < this.alphabet.length; i++) {
+            positions[this.alphabet[i]] = i;
+        }
+        this.minLength = minLength;
+        this.targets = new DigestSet(targetHashes);
+
+        // lengthStarts[i] is the index of the first candidate of length minLength + i in the whole space
+        this.lengthStarts = new long[maxLength - minLength + 2];
+        for (int length = minLength; length <= maxLength; length++) {
+            long count = 1;
+            for (int i = 0; i < length; i++) {
+                count = Math.multiplyExact(count, this.alphabet.length);
+            }
+            int slot = length - minLength;
+            lengthStarts[slot + 1] = Math.addExact(lengthStarts[slot], count);
+        }
+    }
+
+    /**
+     * Searches the whole space on every core and blocks until it is exhausted or every target is found.
+     * {@code onMatch} is called from the worker threads, concurrently, as soon as a hash is cracked.
+     * Every call searches for all targets again, so calls must not overlap.
+     *
+     * @return the number of targets that were cracked
+     */
+    public int crack(Consumer<Match> onMatch) {
+        AtomicLong cursor = new AtomicLong();
+        AtomicInteger cracked = new AtomicInteger();
+        long spaceSize = lengthStarts[lengthStarts.length - 1];
+        targets.clearFound();
+
+        try (ExecutorService threadPool = Executors.newFixedThreadPool(NUM_PROCESSORS)) {
+            for (int i = 0; i < NUM_PROCESSORS; i++) {
+                threadPool.execute(() -> {
+                    long from;
+                    while (cracked.get() < targets.size() && (from = cursor.getAndAdd(RANGE_SIZE)) < spaceSize) {
+                        crackRange(from, Math.min(from + RANGE_SIZE, spaceSize), match -> {
+                            cracked.incrementAndGet();
+                            onMatch.accept(match);
+                        });
+                    }
+                });
+            }
+        }
+
+        return cracked.get();
+    }
+
+    /**
+     * Number of candidates hashed so far.
+     */
+    public long candidates() {
+        return candidates.sum();
+    }
+
+    private void crackRange(long from, long to, Consumer<Match> onMatch) {
+        MessageDigest digest = MissionE.SHA_256.get();
+        byte[] hash = new byte[digest.getDigestLength()];
+
+        while (from < to) {
+            int slot = lengthSlot(from);
+            long end = Math.min(to, lengthStarts[slot + 1]);
+            byte[] candidate = toCandidate(from - lengthStarts[slot], minLength + slot);
+
+            for (long i = from; i < end; i++) {
+                MissionE.hash(digest, candidate, hash);
+                int target = targets.indexOf(hash);
+                if (target >= 0 && targets.markFound(target)) {
+                    onMatch.accept(new Match(new String(candidate, StandardCharsets.US_ASCII), HexFormat.of().formatHex(hash)));
+                }
+                increment(candidate);
+            }
+
+            candidates.add(end - from);
+            from = end;
+        }
+    }
+
+    private int lengthSlot(long index) {
+        int slot = 0;
+        while (lengthStarts[slot + 1] <= index) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private byte[] toCandidate(long offset, int length) {
+        byte[] candidate = new byte[length];
+        for (int i = length - 1; i >= 0; i--) {
+            candidate[i] = alphabet[(int) (offset % alphabet.length)];
+            offset /= alphabet.length;
+        }
+        return candidate;
+    }
+
+    // MissionE.increment over an arbitrary alphabet instead of the digits
+    private void increment(byte[] candidate) {
+        for (int i = candidate.length - 1; i >= 0; i--) {
+            int next = positions[candidate[i]] + 1;
+            if (next < alphabet.length) {
+                candidate[i] = alphabet[next];
+                return;
+            }
+            candidate[i] = alphabet[0];
+        }
+    }
+
+    /**
+     * An open-addressing hash set of 32-byte digests, stored as four longs per slot.
+     * Digests are uniformly distributed already, so their first eight bytes serve as the hash code.
+     */
+    private static class DigestSet {
+
+        private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+        private static final int DIGEST_LENGTH = 32;
+        private static final int WORDS = DIGEST_LENGTH / Long.BYTES;
+
+        private final long[] table;
+        private final boolean[] used;
+        private final AtomicIntegerArray found;
+        private final int mask;
+        private final int size;
+
+        DigestSet(Collection<String> hexDigests) {
+            int capacity = Integer.highestOneBit(Math.max(hexDigests.size(), 1) * 2 - 1) << 1;
+            this.table = new long[capacity * WORDS];
+            this.used = new boolean[capacity];
+            this.found = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+
+            int count = 0;
+            for (String hexDigest : hexDigests) {
+                byte[] digest = HexFormat.of().parseHex(hexDigest);
+                if (digest.length != DIGEST_LENGTH) {
+                    throw new IllegalArgumentException("Not a SHA-256 hash: " + hexDigest);
+                }
+                if (insert(digest)) {
+                    count++;
+                }
+            }
+            this.size = count;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the slot holding {@code digest}, or -1 if it is not a target
+         */
+        int indexOf(byte[] digest) {
+            long first = (long) LONGS.get(digest, 0);
+            for (int slot = (int) first & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (matches(slot, first, digest)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return true for the first caller only, so that every target is reported once
+         */
+        boolean markFound(int slot) {
+            return found.compareAndSet(slot, 0, 1);
+        }
+
+        void clearFound() {
+            for (int slot = 0; slot < found.length(); slot++) {
+                found.set(slot, 0);
+            }
+        }
+
+        private boolean insert(byte[] digest) {
+            long first = (long) LONGS.get(digest, 0);
+            int slot = (int) first & mask;
+            for (; used[slot]; slot = (slot + 1) & mask) {
+                if (matches(slot, first, digest)) {
+                    return false;
+                }
+            }
+
+            used[slot] = true;
+            for (int word = 0; word < WORDS; word++) {
+                table[slot * WORDS + word] = (long) LONGS.get(digest, word * Long.BYTES);
+            }
+            return true;
+        }
+
+        private boolean matches(int slot, long first, byte[] digest) {
+            int base = slot * WORDS;
+            return table[base] == first
+                && table[base + 1] == (long) LONGS.get(digest, Long.BYTES)
+                && table[base + 2] == (long) LONGS.get(digest, 2 * Long.BYTES)
+                && table[base + 3] == (long) LONGS.get(digest, 3 * Long.BYTES);
+        }
+    }
+
+    /**
+     * Usage: {@code BatchCracker [decoys]}. Cracks a few known passwords hidden among {@code decoys}
+     * random hashes; the candidate rate stays the same whatever the number of decoys.
+     */
+    public static void main(String[] args) {
+        int decoys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789";
+        List<String> passwords = List.of("duck", "a1b2", "zz9", "q");
+
+        List<String> targets = new ArrayList<>();
+        MessageDigest digest = MissionE.SHA_256.get();
+        for (String password : passwords) {
+            targets.add(HexFormat.of().formatHex(digest.digest(password.getBytes(StandardCharsets.US_ASCII))));
+        }
+        Random random = new Random(42);
+        byte[] decoy = new byte[32];
+        for (int i = 0; i < decoys; i++) {
+            random.nextBytes(decoy);
+            targets.add(HexFormat.of().formatHex(decoy));
+        }
+
+        System.out.printf("Cracking %d hashes over [%s]{1,4}%n", targets.size(), alphabet);
+        BatchCracker cracker = new BatchCracker(alphabet, 1, 4, targets);
+
+        long startTimeNanos = System.nanoTime();
+        int cracked = cracker.crack(match -> System.out.printf("CRACKED %s: %s%n", match.hash(), match.password()));
+        long processTimeNanos = System.nanoTime() - startTimeNanos;
+
+        System.out.printf("%d of %d hashes cracked in %d ms, %d candidates/s%n", cracked, targets.size(),
+            TimeUnit.NANOSECONDS.toMillis(processTimeNanos),
+            cracker.candidates() * TimeUnit.SECONDS.toNanos(1) / Math.max(processTimeNanos, 1));
+    }
+}
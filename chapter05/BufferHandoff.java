@@ -0,0 +1,80 @@
+package chapter05;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Passes off-heap buffers from one writing to one reading thread without copying their bytes: the writer fills a
+ * buffer and sends it, after which it belongs to the reader until the reader releases it back.
+ * <p>
+ * A fixed set of direct buffers goes round between the two, so memory stays bounded and a writer that gets ahead
+ * waits for the reader to release a buffer. A hand-over costs the same however many bytes the buffer holds, unlike
+ * a {@link RingChannel}, which copies every byte into its ring and out again.
+ */
+public class BufferHandoff {
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> sent;
+    private final int bufferSize;
+
+    public BufferHandoff(int buffers, int bufferSize) {
+        if (buffers <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffers: " + buffers + " of " + bufferSize + " bytes");
+        }
+        this.free = new ArrayBlockingQueue<>(buffers);
+        // One more slot than there are buffers, for the end of the stream
+        this.sent = new ArrayBlockingQueue<>(buffers + 1);
+        this.bufferSize = bufferSize;
+        for (int i = 0; i < buffers; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Waits for a buffer the reader released, cleared for the writer to fill.
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        return free.take().clear();
+    }
+
+    /**
+     * Hands a buffer from {@link #acquire()} to the reader, with the bytes from its position to its limit.
+     * The writer must not touch it afterwards.
+     */
+    public void send(ByteBuffer buffer) throws InterruptedException {
+        sent.put(buffer);
+    }
+
+    /**
+     * Ends the stream after the buffers sent so far.
+     */
+    public void close() throws InterruptedException {
+        sent.put(END_OF_STREAM);
+    }
+
+    /**
+     * Waits for the next buffer the writer sent. It belongs to the reader until {@link #release}d.
+     *
+     * @return the buffer, or null at the end of the stream
+     */
+    public ByteBuffer receive() throws InterruptedException {
+        ByteBuffer buffer = sent.take();
+        if (buffer == END_OF_STREAM) {
+            // Leave the end of the stream for the next receive, there is room since it was just taken
+            sent.add(buffer);
+            return null;
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        free.add(buffer);
+    }
+}
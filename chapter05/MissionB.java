@@ -1,12 +1,16 @@
 package chapter05;
 
 import java.io.*;
+import java.nio.channels.Channels;
 
 public class MissionB {
 
-    public static void main(String[] args) throws IOException, InterruptedException {
-        PipedOutputStream output = new PipedOutputStream();
-        PipedInputStream input = new PipedInputStream(output);
+    private static final int RING_CAPACITY = 1 << 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        RingChannel channel = new RingChannel(RING_CAPACITY);
+        OutputStream output = Channels.newOutputStream(channel.sink());
+        InputStream input = Channels.newInputStream(channel.source());
 
         Writer writer = new Writer(output);
         Reader reader = new Reader(input);
@@ -1,11 +1,17 @@
 package chapter05;
 
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MissionE {
 
@@ -14,22 +20,56 @@ public class MissionE {
 
     private static final int PASSWORD_LENGTH = 7;
     private static final String CRYPTO_HASH =  "fe68a21fc76bba7b3a3d8e454eca8cd258de68fd08dddf035f23ddbdce6fc049";
+    private static final byte[] TARGET_HASH = HexFormat.of().parseHex(CRYPTO_HASH);
 
+    static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    });
+
+    private static final long RANGE_SIZE = 1L << 14;
+
+    private enum Mode {
+        /** Fixed chunks per core; results are awaited in submission order and every chunk runs to its end. */
+        ORDERED,
+        /** Fixed chunks per core; the first hit stops every worker and shuts the pool down. */
+        CANCELLING,
+        /** Workers keep taking small ranges from a shared cursor, so early finishers take over the rest. */
+        WORK_STEALING
+    }
+
+    /**
+     * Usage: {@code MissionE [ordered|cancelling|work-stealing]}, runs every mode when none is given.
+     */
     public static void main(String[] args) {
-        System.out.println("Processing number combination concurrently");
+        List<Mode> modes = args.length > 0
+            ? List.of(Mode.valueOf(args[0].toUpperCase().replace('-', '_')))
+            : List.of(Mode.values());
 
-        boolean cracked = false;
-        String password = null;
+        for (Mode mode : modes) {
+            System.out.printf("Processing number combination concurrently (%s)%n", mode);
 
-        List<Chunk> chunks = getChunks();
+            Search search = new Search();
+            switch (mode) {
+                case ORDERED -> crackOrdered(search);
+                case CANCELLING -> crackCancelling(search);
+                case WORK_STEALING -> crackWorkStealing(search);
+            }
+            search.report();
+        }
+    }
 
-        long startTimeNanos = System.nanoTime();
+    private static void crackOrdered(Search search) {
+        List<Chunk> chunks = getChunks();
 
         try (ExecutorService threadPool = Executors.newFixedThreadPool(chunks.size())) {
             List<Future<String>> futures = new ArrayList<>();
 
             for (Chunk chunk : chunks) {
-                Future<String> future = threadPool.submit(() -> crackChunk(chunk));
+                Future<String> future = threadPool.submit(() -> crackChunk(chunk, search, false));
                 futures.add(future);
             }
 
@@ -39,8 +79,6 @@ public class MissionE {
                 try {
                     String result = future.get();
                     if (checkResult(result)) {
-                        cracked = true;
-                        password = result;
                         break;
                     }
                 } catch (InterruptedException | ExecutionException e) {
@@ -48,16 +86,51 @@ public class MissionE {
                 }
             }
         }
+    }
+
+    private static void crackCancelling(Search search) {
+        List<Chunk> chunks = getChunks();
 
-        if (cracked) {
-            System.out.printf("PASSWORD CRACKED: %s%n", password);
-        } else {
-            System.out.println("PASSWORD NOT CRACKED");
+        try (ExecutorService threadPool = Executors.newFixedThreadPool(chunks.size())) {
+            CompletionService<String> completionService = new ExecutorCompletionService<>(threadPool);
+
+            for (Chunk chunk : chunks) {
+                completionService.submit(() -> crackChunk(chunk, search, true));
+            }
+
+            System.out.println("Waiting for the first chunk to crack it");
+
+            try {
+                for (int i = 0; i < chunks.size(); i++) {
+                    if (checkResult(completionService.take().get())) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            } finally {
+                threadPool.shutdownNow();
+            }
         }
+    }
+
+    private static void crackWorkStealing(Search search) {
+        long maxNumber = getMaxNumber();
+        AtomicLong cursor = new AtomicLong();
+
+        System.out.printf("Processing 0 to %d in ranges of %d%n", maxNumber, RANGE_SIZE);
 
-        long endTimeNanos = System.nanoTime();
-        long processTimeSeconds = TimeUnit.NANOSECONDS.toSeconds(endTimeNanos - startTimeNanos);
-        System.out.println(processTimeSeconds + " seconds");
+        try (ExecutorService threadPool = Executors.newFixedThreadPool(NUM_PROCESSORS)) {
+            for (int i = 0; i < NUM_PROCESSORS; i++) {
+                threadPool.execute(() -> {
+                    long from;
+                    while (!search.isFound() && (from = cursor.getAndAdd(RANGE_SIZE)) <= maxNumber) {
+                        long to = Math.min(from + RANGE_SIZE - 1, maxNumber);
+                        crackRange(new Chunk(from, to), search, true);
+                    }
+                });
+            }
+        }
     }
 
     private static boolean checkResult(String result) {
@@ -66,12 +139,12 @@ public class MissionE {
 
     private static List<Chunk> getChunks() {
         List<Chunk> chunks = new ArrayList<>();
-        int maxNumber = (int) Math.pow(10, PASSWORD_LENGTH) - 1;
-        int chunkSize = maxNumber / NUM_PROCESSORS;
+        long maxNumber = getMaxNumber();
+        long chunkSize = maxNumber / NUM_PROCESSORS;
 
         for (int i = 0; i < NUM_PROCESSORS; i++) {
-            int chunkStart = i * chunkSize;
-            int chunkEnd = chunkStart + chunkSize - 1;
+            long chunkStart = i * chunkSize;
+            long chunkEnd = chunkStart + chunkSize - 1;
             if (i == NUM_PROCESSORS - 1) {
                 chunks.add(new Chunk(chunkStart, maxNumber));
             } else {
@@ -82,57 +155,120 @@ public class MissionE {
         return chunks;
     }
 
-    private static List<String> getCombinations(int min, int max) {
-        List<String> combinations = new ArrayList<>();
-
-        for (int i = min; i <= max; i++) {
-            String num = Integer.toString(i);
-            String zeros = "0".repeat(PASSWORD_LENGTH - num.length());
+    private static long getMaxNumber() {
+        return (long) Math.pow(10, PASSWORD_LENGTH) - 1;
+    }
 
-            combinations.add(zeros + num);
-        }
+    private static String crackChunk(Chunk chunk, Search search, boolean cancellable) {
+        System.out.printf("Processing %d to %d%n", chunk.from(), chunk.to());
 
-        return combinations;
+        return crackRange(chunk, search, cancellable);
     }
 
-    private static String crackChunk(Chunk chunk) {
-        System.out.printf("Processing %d to %d%n", chunk.from(), chunk.to());
+    /**
+     * Walks the range with a single candidate buffer that is incremented in place,
+     * so memory use does not depend on the range size or the password length.
+     * A cancellable walk gives up as soon as any worker has found the password.
+     */
+    static String crackRange(Chunk chunk, Search search, boolean cancellable) {
+        MessageDigest digest = SHA_256.get();
+        byte[] candidate = toCandidate(chunk.from());
+        byte[] hash = new byte[digest.getDigestLength()];
+        long tried = 0;
 
-        List<String> combinations = getCombinations(chunk.from(), chunk.to());
+        try {
+            for (long i = chunk.from(); i <= chunk.to(); i++) {
+                if (cancellable && search.isFound()) {
+                    return NOT_FOUND;
+                }
 
-        for(String combination : combinations) {
-            if (checkPassword(getCryptoHash(combination))) {
-                return combination;
+                hash(digest, candidate, hash);
+                tried++;
+                if (checkPassword(hash)) {
+                    String password = new String(candidate, StandardCharsets.US_ASCII);
+                    search.hit(password);
+                    return password;
+                }
+                increment(candidate);
             }
+
+            return NOT_FOUND;
+        } finally {
+            search.candidates.add(tried);
         }
+    }
 
-        return NOT_FOUND;
+    private static byte[] toCandidate(long number) {
+        byte[] candidate = new byte[PASSWORD_LENGTH];
+        for (int i = PASSWORD_LENGTH - 1; i >= 0; i--) {
+            candidate[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return candidate;
     }
 
-    private static boolean checkPassword(String possibleHash) {
-        return CRYPTO_HASH.equals(possibleHash);
+    private static void increment(byte[] candidate) {
+        for (int i = candidate.length - 1; i >= 0; i--) {
+            if (candidate[i] != '9') {
+                candidate[i]++;
+                return;
+            }
+            candidate[i] = '0';
+        }
     }
 
-    private static String getCryptoHash(String password) {
+    static void hash(MessageDigest digest, byte[] candidate, byte[] hash) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 not available", e);
+            digest.update(candidate);
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
         }
     }
 
-    private record Chunk(int from, int to) {
+    private static boolean checkPassword(byte[] possibleHash) {
+        return Arrays.equals(TARGET_HASH, possibleHash);
+    }
+
+    record Chunk(long from, long to) {
+    }
+
+    /**
+     * Progress shared by the workers of one run: the password once found, when it was found,
+     * and how many candidates were hashed.
+     */
+    static class Search {
+
+        private final long startTimeNanos = System.nanoTime();
+        private final AtomicReference<String> password = new AtomicReference<>();
+        private final LongAdder candidates = new LongAdder();
+
+        private volatile long firstHitNanos;
+
+        boolean isFound() {
+            return password.get() != null;
+        }
+
+        void hit(String result) {
+            if (password.compareAndSet(null, result)) {
+                firstHitNanos = System.nanoTime();
+            }
+        }
+
+        void report() {
+            long endTimeNanos = System.nanoTime();
+
+            if (isFound()) {
+                System.out.printf("PASSWORD CRACKED: %s%n", password.get());
+                System.out.printf("First hit after %d ms%n", TimeUnit.NANOSECONDS.toMillis(firstHitNanos - startTimeNanos));
+            } else {
+                System.out.println("PASSWORD NOT CRACKED");
+            }
+
+            long processTimeNanos = endTimeNanos - startTimeNanos;
+            long candidatesPerSecond = candidates.sum() * TimeUnit.SECONDS.toNanos(1) / Math.max(processTimeNanos, 1);
+            System.out.println(TimeUnit.NANOSECONDS.toSeconds(processTimeNanos) + " seconds");
+            System.out.printf("%d candidates hashed, %d candidates/s%n%n", candidates.sum(), candidatesPerSecond);
+        }
     }
 }
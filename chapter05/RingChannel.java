@@ -0,0 +1,199 @@
+package chapter05;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pipe between one writing and one reading thread, over a ring of off-heap memory.
+ * <p>
+ * Unlike {@link java.io.PipedOutputStream}, the ring can be as large as needed, bytes move in bulk copies of as much
+ * as fits, and a thread that has to wait parks until the other one unparks it, instead of polling. The writer and
+ * reader never lock: each only moves its own position forward and publishes it with a volatile write.
+ * <p>
+ * {@link #sink()} is the writing end and {@link #source()} the reading end. Wrap them with
+ * {@link java.nio.channels.Channels} where streams are needed. Closing the sink ends the stream for the reader;
+ * closing the source makes further writes fail.
+ */
+public class RingChannel {
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final int mask;
+
+    private final Sink sink = new Sink();
+    private final Source source = new Source();
+
+    // Only the writer moves writePosition forward, and only the reader readPosition
+    private volatile long writePosition;
+    private volatile long readPosition;
+    private volatile Thread waitingWriter;
+    private volatile Thread waitingReader;
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+
+    /**
+     * @param capacity size of the ring in bytes, rounded up to a power of two
+     */
+    public RingChannel(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        this.capacity = Integer.highestOneBit(capacity * 2 - 1);
+        this.mask = this.capacity - 1;
+        this.ring = ByteBuffer.allocateDirect(this.capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public WritableByteChannel sink() {
+        return sink;
+    }
+
+    public ReadableByteChannel source() {
+        return source;
+    }
+
+    private class Sink implements WritableByteChannel {
+
+        /**
+         * Writes every remaining byte of {@code src}, waiting for room in the ring as often as needed.
+         */
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = 0;
+            while (src.hasRemaining()) {
+                if (writerClosed) {
+                    throw new ClosedChannelException();
+                }
+                if (readerClosed) {
+                    throw new IOException("Reader closed the channel");
+                }
+
+                long position = writePosition;
+                int free = capacity - (int) (position - readPosition);
+                if (free == 0) {
+                    awaitRoom(position);
+                    if (writerClosed) {
+                        throw new AsynchronousCloseException();
+                    }
+                    continue;
+                }
+
+                int length = Math.min(free, src.remaining());
+                int index = (int) position & mask;
+                int first = Math.min(length, capacity - index);
+                ring.put(index, src, src.position(), first);
+                ring.put(0, src, src.position() + first, length - first);
+                src.position(src.position() + length);
+
+                writePosition = position + length;
+                written += length;
+                LockSupport.unpark(waitingReader);
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !writerClosed;
+        }
+
+        @Override
+        public void close() {
+            writerClosed = true;
+            // Wake the reader to see the end of the stream, and a writer blocked on this end to give up
+            LockSupport.unpark(waitingReader);
+            LockSupport.unpark(waitingWriter);
+        }
+
+        private void awaitRoom(long position) throws InterruptedIOException {
+            waitingWriter = Thread.currentThread();
+            // The reader may have made room before it could see this thread waiting
+            if (position - readPosition == capacity && !readerClosed && !writerClosed) {
+                LockSupport.park(this);
+            }
+            waitingWriter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while waiting for the reader");
+            }
+        }
+    }
+
+    private class Source implements ReadableByteChannel {
+
+        /**
+         * Reads as many bytes as are in the ring and fit in {@code dst}, waiting for at least one.
+         *
+         * @return the number of bytes read, or -1 at the end of the stream
+         */
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (readerClosed) {
+                throw new ClosedChannelException();
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            while (true) {
+                long position = readPosition;
+                int available = (int) (writePosition - position);
+                if (available == 0) {
+                    // The writer moves its position before closing, so look once more after seeing it closed
+                    if (writerClosed && writePosition == position) {
+                        return -1;
+                    }
+                    awaitData(position);
+                    if (readerClosed) {
+                        throw new AsynchronousCloseException();
+                    }
+                    continue;
+                }
+
+                int length = Math.min(available, dst.remaining());
+                int index = (int) position & mask;
+                int first = Math.min(length, capacity - index);
+                dst.put(dst.position(), ring, index, first);
+                dst.put(dst.position() + first, ring, 0, length - first);
+                dst.position(dst.position() + length);
+
+                readPosition = position + length;
+                LockSupport.unpark(waitingWriter);
+                return length;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !readerClosed;
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            // Make a writer blocked on a full ring fail, and a reader blocked on this end give up
+            LockSupport.unpark(waitingWriter);
+            LockSupport.unpark(waitingReader);
+        }
+
+        private void awaitData(long position) throws InterruptedIOException {
+            waitingReader = Thread.currentThread();
+            // The writer may have written or closed before it could see this thread waiting
+            if (writePosition == position && !writerClosed && !readerClosed) {
+                LockSupport.park(this);
+            }
+            waitingReader = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            }
+        }
+    }
+}
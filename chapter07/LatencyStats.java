@@ -0,0 +1,45 @@
+package chapter07;
+
+import java.util.Arrays;
+
+/**
+ * How long the items of a finished run took from entering to leaving a pipeline.
+ */
+public record LatencyStats(int count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+
+    static LatencyStats of(long[] latenciesNanos, int count) {
+        if (count == 0) {
+            return new LatencyStats(0, 0, 0, 0, 0);
+        }
+        long[] sorted = Arrays.copyOf(latenciesNanos, count);
+        Arrays.sort(sorted);
+        return new LatencyStats(count, (long) Arrays.stream(sorted).average().orElse(0),
+            sorted[count / 2], sorted[(int) (count * 0.99)], sorted[count - 1]);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d item(s), latency mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+            count, meanNanos / 1e6, p50Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6);
+    }
+
+    /**
+     * Collects latencies from any number of threads.
+     */
+    static final class Recorder {
+
+        private long[] latenciesNanos = new long[64];
+        private int count;
+
+        synchronized void record(long latencyNanos) {
+            if (count == latenciesNanos.length) {
+                latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+            }
+            latenciesNanos[count++] = latencyNanos;
+        }
+
+        synchronized LatencyStats stats() {
+            return LatencyStats.of(latenciesNanos, count);
+        }
+    }
+}
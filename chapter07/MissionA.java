@@ -1,14 +1,52 @@
 package chapter07;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class MissionA {
 
-    private record Washload(int number) {
+    /**
+     * @param createdAtNanos when the washload was put together, to time its way through the pipeline
+     */
+    record Washload(int number, long createdAtNanos) {
+
+        Washload(int number) {
+            this(number, System.nanoTime());
+        }
+    }
+
+    /**
+     * Sent after the last washload. Every stage passes it on to the next stage and stops.
+     */
+    static final Washload NO_MORE_WASHLOADS = new Washload(0);
+
+    private static final long HAND_OFF_TIMEOUT = 1000L;
+
+    /**
+     * Passes {@link #NO_MORE_WASHLOADS} on from a stage that was interrupted, so that the stages after it
+     * stop as well instead of waiting for washloads that never come.
+     * <p>
+     * If the next stage does not make room in time it has most likely stopped too, so the washloads it left
+     * behind are dropped to make room. Being interrupted again gives up on the next stage altogether.
+     */
+    private static void stopAfterInterrupt(String stage, BlockingQueue<Washload> outQueue) {
+        System.out.printf("%s: interrupted, stopping%n", stage);
+        try {
+            if (outQueue != null && !outQueue.offer(NO_MORE_WASHLOADS, HAND_OFF_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.out.printf("%s: next stage is not taking washloads, dropping %d%n", stage, outQueue.size());
+                outQueue.clear();
+                // Only this stage puts into the queue, so there is room now
+                outQueue.offer(NO_MORE_WASHLOADS);
+            }
+        } catch (InterruptedException ignored) {
+            // Interrupted again, the interrupt is restored below
+        }
+        Thread.currentThread().interrupt();
     }
 
-    private static class Washer extends Thread {
+    static class Washer extends Thread {
 
         private static final long WASHING_TIME = 4000L;
 
@@ -16,32 +54,41 @@ public class MissionA {
 
         private final BlockingQueue<Washload> inQueue;
         private final BlockingQueue<Washload> outQueue;
+        private final long washingTime;
 
         public Washer(BlockingQueue<Washload> inQueue, BlockingQueue<Washload> outQueue) {
+            this(inQueue, outQueue, WASHING_TIME);
+        }
+
+        public Washer(BlockingQueue<Washload> inQueue, BlockingQueue<Washload> outQueue, long washingTime) {
             super(THREAD_NAME);
             this.inQueue = inQueue;
             this.outQueue = outQueue;
+            this.washingTime = washingTime;
         }
 
         @Override
         public void run() {
-            while (true) {
-                try {
+            try {
+                while (true) {
                     Washload washload = inQueue.take();
+                    if (washload == NO_MORE_WASHLOADS) {
+                        outQueue.put(washload);
+                        return;
+                    }
 
                     System.out.printf("%s: washing Washload #%d...%n", THREAD_NAME, washload.number());
-                    Thread.sleep(WASHING_TIME);
+                    Thread.sleep(washingTime);
 
-                    outQueue.add(washload);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException(e);
+                    outQueue.put(washload);
                 }
+            } catch (InterruptedException e) {
+                stopAfterInterrupt(THREAD_NAME, outQueue);
             }
         }
     }
 
-    private static class Dryer extends Thread {
+    static class Dryer extends Thread {
 
         private static final long DRYING_TIME = 2000L;
 
@@ -49,55 +96,85 @@ public class MissionA {
 
         private final BlockingQueue<Washload> inQueue;
         private final BlockingQueue<Washload> outQueue;
+        private final long dryingTime;
 
         public Dryer(BlockingQueue<Washload> inQueue, BlockingQueue<Washload> outQueue) {
+            this(inQueue, outQueue, DRYING_TIME);
+        }
+
+        public Dryer(BlockingQueue<Washload> inQueue, BlockingQueue<Washload> outQueue, long dryingTime) {
             super(THREAD_NAME);
             this.inQueue = inQueue;
             this.outQueue = outQueue;
+            this.dryingTime = dryingTime;
         }
 
         @Override
         public void run() {
-            while (true) {
-                try {
+            try {
+                while (true) {
                     Washload washload = inQueue.take();
+                    if (washload == NO_MORE_WASHLOADS) {
+                        outQueue.put(washload);
+                        return;
+                    }
 
                     System.out.printf("%s: drying Washload #%d...%n", THREAD_NAME, washload.number());
-                    Thread.sleep(DRYING_TIME);
+                    Thread.sleep(dryingTime);
 
-                    outQueue.add(washload);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException(e);
+                    outQueue.put(washload);
                 }
+            } catch (InterruptedException e) {
+                stopAfterInterrupt(THREAD_NAME, outQueue);
             }
         }
     }
 
-    private static class Folder extends Thread {
+    static class Folder extends Thread {
 
         private static final String THREAD_NAME = "Folder";
 
         private static final long FOLDING_TIME = 2000L;
 
         private final BlockingQueue<Washload> inQueue;
+        private final BlockingQueue<Washload> outQueue;
+        private final long foldingTime;
 
         public Folder(BlockingQueue<Washload> inQueue) {
+            this(inQueue, null, FOLDING_TIME);
+        }
+
+        /**
+         * @param outQueue receives every folded washload, or {@code null} if nobody is waiting for them
+         */
+        public Folder(BlockingQueue<Washload> inQueue, BlockingQueue<Washload> outQueue, long foldingTime) {
             super(THREAD_NAME);
             this.inQueue = inQueue;
+            this.outQueue = outQueue;
+            this.foldingTime = foldingTime;
         }
 
         @Override
         public void run() {
-            while (true) {
-                try {
+            try {
+                while (true) {
                     Washload washload = inQueue.take();
-
-                    Thread.sleep(FOLDING_TIME);
+                    if (washload == NO_MORE_WASHLOADS) {
+                        if (outQueue != null) {
+                            outQueue.put(washload);
+                        }
+                        return;
+                    }
+
+                    Thread.sleep(foldingTime);
                     System.out.printf("%s: folding Washload #%d done!%n", THREAD_NAME, washload.number());
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+
+                    if (outQueue != null) {
+                        outQueue.put(washload);
+                    }
                 }
+            } catch (InterruptedException e) {
+                stopAfterInterrupt(THREAD_NAME, outQueue);
             }
         }
     }
@@ -105,38 +182,106 @@ public class MissionA {
     private static class Pipeline {
 
         private static final int WASH_LOAD_COUNT = 4;
+        private static final int REORDER_WINDOW = 4;
 
         private BlockingQueue<Washload> assembleLaundryForWashing() {
-            BlockingQueue<Washload> washloads = new LinkedBlockingQueue<>(WASH_LOAD_COUNT);
+            BlockingQueue<Washload> washloads = new LinkedBlockingQueue<>(WASH_LOAD_COUNT + 1);
 
             for (int number = 1; number <= WASH_LOAD_COUNT; number++) {
                 washloads.add(new Washload(number));
             }
+            washloads.add(NO_MORE_WASHLOADS);
 
             return washloads;
         }
 
-        private void runConcurrently() throws InterruptedException {
+        /**
+         * @return completes once every washload is folded and every stage has stopped
+         */
+        private CompletableFuture<LatencyStats> runConcurrently() {
             BlockingQueue<Washload> toBeWashed = assembleLaundryForWashing();
             BlockingQueue<Washload> toBeDried = new LinkedBlockingQueue<>(WASH_LOAD_COUNT);
             BlockingQueue<Washload> toBeFolded = new LinkedBlockingQueue<>(WASH_LOAD_COUNT);
+            BlockingQueue<Washload> folded = new LinkedBlockingQueue<>(WASH_LOAD_COUNT);
 
             Washer washer = new Washer(toBeWashed, toBeDried);
             Dryer dryer = new Dryer(toBeDried, toBeFolded);
-            Folder folder = new Folder(toBeFolded);
+            Folder folder = new Folder(toBeFolded, folded, Folder.FOLDING_TIME);
 
             washer.start();
             dryer.start();
             folder.start();
 
-            washer.join();
-            dryer.join();
-            folder.join();
+            CompletableFuture<LatencyStats> completion = new CompletableFuture<>();
+            Thread basket = new Thread(() -> {
+                try {
+                    LatencyStats.Recorder latencies = new LatencyStats.Recorder();
+                    for (Washload washload = folded.take(); washload != NO_MORE_WASHLOADS; washload = folded.take()) {
+                        latencies.record(System.nanoTime() - washload.createdAtNanos());
+                    }
+
+                    washer.join();
+                    dryer.join();
+                    folder.join();
+                    completion.complete(latencies.stats());
+                } catch (InterruptedException e) {
+                    completion.completeExceptionally(e);
+                }
+            }, "Basket");
+            basket.start();
+
+            return completion;
+        }
+
+        /**
+         * Runs the same stages on a {@link PipelineEngine}, which adds washers and dryers while they hold the
+         * others up. The folded washloads are put back in the order of their numbers before they go in the basket.
+         */
+        private void runOnEngine(int washloadCount) throws InterruptedException {
+            PipelineEngine<Washload, Washload> engine = PipelineEngine.<Washload>builder()
+                .stage("Washer", washload -> {
+                    System.out.printf("%s: washing Washload #%d...%n", Thread.currentThread().getName(), washload.number());
+                    Thread.sleep(Washer.WASHING_TIME);
+                    return washload;
+                }, 1, 4)
+                .stage("Dryer", washload -> {
+                    System.out.printf("%s: drying Washload #%d...%n", Thread.currentThread().getName(), washload.number());
+                    Thread.sleep(Dryer.DRYING_TIME);
+                    return washload;
+                }, 1, 4)
+                .stage("Folder", washload -> {
+                    Thread.sleep(Folder.FOLDING_TIME);
+                    System.out.printf("%s: folding Washload #%d done!%n", Thread.currentThread().getName(), washload.number());
+                    return washload;
+                }, 1, 4)
+                .reorder(REORDER_WINDOW)
+                .keyedBy(Washload::number, 1)
+                .queueCapacity(washloadCount)
+                .build();
+
+            engine.start();
+            for (int number = 1; number <= washloadCount; number++) {
+                engine.submit(new Washload(number));
+            }
+            engine.close();
+            for (Washload washload = engine.take(); washload != null; washload = engine.take()) {
+                System.out.printf("Basket: Washload #%d%n", washload.number());
+            }
+
+            System.out.println("All done! " + engine.completion().join());
+            engine.stats().forEach(System.out::println);
         }
     }
 
+    /**
+     * Usage: {@code MissionA [engine [washloads]]}. Without arguments one washer, dryer and folder do the laundry.
+     */
     public static void main(String[] args) throws InterruptedException {
         Pipeline pipeline = new Pipeline();
-        pipeline.runConcurrently();
+        if (args.length > 0 && args[0].equals("engine")) {
+            pipeline.runOnEngine(args.length > 1 ? Integer.parseInt(args[1]) : 12);
+        } else {
+            System.out.println("All done! " + pipeline.runConcurrently().join());
+        }
     }
 }
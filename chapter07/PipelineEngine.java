@@ -0,0 +1,775 @@
+package chapter07;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * A pipeline of stages, each applying a task to the items the stage before produced. Every stage has its own worker
+ * threads and takes its items from a bounded queue, so a stage that falls behind makes the stage before it wait
+ * instead of letting items pile up.
+ * <p>
+ * While the pipeline runs, a monitor measures how much of their time the workers of each stage are busy and how long
+ * an item takes. Every interval it gives one more worker to the stage that limits the throughput, if that stage is
+ * busy and has items waiting, until the stage reaches its maximum number of workers.
+ * <p>
+ * {@link #close()} ends the stream: the stages finish the items they have, pass the end of the stream on to the next
+ * stage and stop, after which {@link #completion()} tells how long the items took.
+ * <p>
+ * With {@link Builder#batching} the stages hand items on in batches, which pays for one queue hand-off, and at most
+ * one wake-up, per batch instead of per item. A worker collects up to the batch size, waiting a little for more items
+ * when there are not enough yet. Each worker doubles its batch size while items are left waiting in its queue after a
+ * full batch, and halves it when the queue runs dry before the batch is full, so that batches only grow under load
+ * and light traffic is not held up.
+ * <p>
+ * Once a stage has several workers, items leave it in the order they are finished. {@link Builder#reorder} puts them
+ * back in the order of their keys, which are the order of submission unless {@link Builder#keyedBy} says otherwise.
+ */
+public class PipelineEngine<I, O> {
+
+    private static final double BUSY_UTILIZATION = 0.8;
+
+    private static final Item END_OF_STREAM = new Item(null, 0L, 0L);
+
+    /**
+     * The work of a stage, turning an item into the item for the next stage.
+     */
+    @FunctionalInterface
+    public interface Task<T, R> {
+
+        R apply(T item) throws InterruptedException;
+    }
+
+    /**
+     * @param utilization    share of the lifetime of the workers they spent working on items
+     * @param serviceMillis  mean time a worker spent on one item
+     */
+    public record StageStats(String name, int workers, long processed, double utilization, double serviceMillis,
+                             int queued) {
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d worker(s), %d item(s), %.0f%% busy, %.1f ms per item, %d queued",
+                name, workers, processed, utilization * 100, serviceMillis, queued);
+        }
+    }
+
+    private final List<Stage> stages;
+    private final BlockingQueue<Parcel> output;
+    private final int maxBatchSize;
+    private final long maxBatchWaitNanos;
+    private final long monitorIntervalNanos;
+    private final Thread monitor;
+    private final LatencyStats.Recorder latencies = new LatencyStats.Recorder();
+    private final CompletableFuture<LatencyStats> completion = new CompletableFuture<>();
+    private final ToLongFunction<? super I> key;
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final ArrayDeque<Item> taken = new ArrayDeque<>();
+
+    // Held while handing an item to the first stage, so that no item can follow the end of the stream
+    private final ReentrantLock submitLock = new ReentrantLock();
+    // Guarded by submitLock
+    private boolean closed;
+
+    private PipelineEngine(Builder<I, O> builder) {
+        this.stages = new ArrayList<>();
+        BlockingQueue<Parcel> input = new ArrayBlockingQueue<>(builder.queueCapacity);
+        // What the workers since the previous reordering can work on at once
+        int inProgress = 0;
+        for (StageSpec spec : builder.stages) {
+            BlockingQueue<Parcel> next = new ArrayBlockingQueue<>(builder.queueCapacity);
+            Stage stage = new Stage(spec, input, next);
+            inProgress += spec.maxWorkers() * builder.maxBatchSize;
+            if (spec.reorderWindow() > 0) {
+                stage.reorder = new Resequencer<>(Item::key, builder.firstKey, spec.reorderWindow(),
+                    spec.reorderWindow() + inProgress);
+                stage.reorderer = stage.newReorderer();
+                inProgress = 0;
+            }
+            if (!stages.isEmpty()) {
+                stages.get(stages.size() - 1).downstream = stage;
+            }
+            stages.add(stage);
+            input = next;
+        }
+        stages.get(stages.size() - 1).last = true;
+        // An item lost in a stage leaves a gap for the reordering in that stage and the stages after it
+        for (int i = 0; i < stages.size(); i++) {
+            for (Stage later : stages.subList(i, stages.size())) {
+                if (later.reorder != null) {
+                    stages.get(i).reordersFromHere.add(later.reorder);
+                }
+            }
+        }
+        this.key = builder.key;
+        this.output = input;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchWaitNanos = builder.maxBatchWaitNanos;
+        this.monitorIntervalNanos = builder.monitorIntervalNanos;
+        this.monitor = new Thread(this::monitor, "Pipeline-monitor");
+        this.monitor.setDaemon(true);
+    }
+
+    public static <T> Builder<T, T> builder() {
+        return new Builder<>();
+    }
+
+    public void start() {
+        for (Stage stage : stages) {
+            stage.lastSampleNanos = System.nanoTime();
+            for (int i = 0; i < stage.initialWorkers; i++) {
+                stage.addWorker();
+            }
+            if (stage.reorderer != null) {
+                stage.reorderer.start();
+            }
+        }
+        if (monitorIntervalNanos > 0) {
+            monitor.start();
+        }
+    }
+
+    /**
+     * Hands an item to the first stage, waiting while its queue is full.
+     */
+    public void submit(I item) throws InterruptedException {
+        submitLock.lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The pipeline is closed");
+            }
+            long itemKey = key != null ? key.applyAsLong(item) : submitted.getAndIncrement();
+            stages.get(0).admit(1);
+            stages.get(0).input.put(new Item(item, System.nanoTime(), itemKey));
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Ends the stream after the items submitted so far. Waits while the queue of the first stage is full.
+     */
+    public void close() throws InterruptedException {
+        submitLock.lockInterruptibly();
+        try {
+            if (!closed) {
+                stages.get(0).input.put(END_OF_STREAM);
+                closed = true;
+            }
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for an item that went through every stage. Items come out in the order they are finished,
+     * which is not necessarily the order they were submitted in once a stage has several workers.
+     *
+     * @return the item, or null once every item is taken and the stream has ended
+     */
+    @SuppressWarnings("unchecked")
+    public O take() throws InterruptedException {
+        takeLock.lockInterruptibly();
+        try {
+            while (taken.isEmpty()) {
+                Parcel parcel = output.take();
+                if (parcel == END_OF_STREAM) {
+                    // Leave the end of the stream for the next take, there is room since it was just taken
+                    output.offer(parcel);
+                    return null;
+                }
+                parcel.addTo(taken);
+            }
+            return (O) taken.poll().value();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * Completes when every stage has stopped after the end of the stream, with the time each item took from
+     * {@link #submit} until the last stage finished it. Fails if the pipeline is stopped before that, or with the
+     * {@link Error} a task threw; the stages still finish the other items then.
+     */
+    public CompletableFuture<LatencyStats> completion() {
+        return completion;
+    }
+
+    /**
+     * Interrupts every worker and waits for them to stop. Items still in the pipeline are dropped.
+     */
+    public void stop() throws InterruptedException {
+        completion.completeExceptionally(new CancellationException("Stopped before the end of the stream"));
+        monitor.interrupt();
+        for (Stage stage : stages) {
+            stage.workers.forEach(Thread::interrupt);
+            if (stage.reorderer != null) {
+                stage.reorderer.interrupt();
+            }
+        }
+        for (Stage stage : stages) {
+            for (Thread worker : stage.workers) {
+                worker.join();
+            }
+            if (stage.reorderer != null) {
+                stage.reorderer.join();
+            }
+        }
+    }
+
+    public List<StageStats> stats() {
+        long now = System.nanoTime();
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage stage : stages) {
+            long lifetime = 0;
+            for (Worker worker : stage.workers) {
+                lifetime += worker.lifetimeNanos(now);
+            }
+            long busy = stage.busyNanos(now);
+            long processed = stage.processed.sum();
+            stats.add(new StageStats(stage.name, stage.workers.size(), processed,
+                lifetime == 0 ? 0 : (double) busy / lifetime,
+                processed == 0 ? 0 : busy / 1e6 / processed,
+                stage.input.size()));
+        }
+        return stats;
+    }
+
+    private void monitor() {
+        try {
+            while (true) {
+                TimeUnit.NANOSECONDS.sleep(monitorIntervalNanos);
+                rebalance();
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is stopping
+        }
+    }
+
+    /**
+     * Adds a worker to the stage that can take the fewest items per second, among the stages that are busy
+     * and have items waiting.
+     */
+    private void rebalance() {
+        long now = System.nanoTime();
+        Stage bottleneck = null;
+        double lowestCapacity = Double.MAX_VALUE;
+
+        for (Stage stage : stages) {
+            long busy = stage.busyNanos(now);
+            long processed = stage.processed.sum();
+            int workers = stage.workers.size();
+            double utilization = (double) (busy - stage.lastBusyNanos) / ((now - stage.lastSampleNanos) * workers);
+            stage.lastBusyNanos = busy;
+            stage.lastSampleNanos = now;
+
+            // Until an item is finished, the time spent on the first ones is the best guess of the service time
+            double serviceNanos = (double) busy / Math.max(processed, 1);
+            double capacity = workers / serviceNanos;
+            if (utilization >= BUSY_UTILIZATION && !stage.input.isEmpty() && workers < stage.maxWorkers
+                && capacity < lowestCapacity) {
+                bottleneck = stage;
+                lowestCapacity = capacity;
+            }
+        }
+
+        if (bottleneck != null && bottleneck.addWorker()) {
+            System.out.printf("Pipeline: %s is the bottleneck, now with %d workers%n",
+                bottleneck.name, bottleneck.workers.size());
+        }
+    }
+
+    public static final class Builder<I, T> {
+
+        private static final int DEFAULT_QUEUE_CAPACITY = 16;
+        private static final long DEFAULT_MONITOR_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final List<StageSpec> stages = new ArrayList<>();
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private int maxBatchSize = 1;
+        private long maxBatchWaitNanos;
+        private ToLongFunction<? super I> key;
+        private long firstKey;
+        private long monitorIntervalNanos = DEFAULT_MONITOR_INTERVAL_NANOS;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a stage with a fixed number of workers.
+         */
+        public <R> Builder<I, R> stage(String name, Task<? super T, ? extends R> task, int workers) {
+            return stage(name, task, workers, workers);
+        }
+
+        /**
+         * Adds a stage that starts with {@code workers} workers and gets more, up to {@code maxWorkers},
+         * while it is the bottleneck.
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> stage(String name, Task<? super T, ? extends R> task, int workers, int maxWorkers) {
+            if (workers <= 0 || maxWorkers < workers) {
+                throw new IllegalArgumentException("Invalid workers for " + name + ": " + workers + ".." + maxWorkers);
+            }
+            stages.add(new StageSpec(name, (Task<Object, Object>) task, workers, maxWorkers, 0));
+            return (Builder<I, R>) this;
+        }
+
+        /**
+         * Lets the items of the stage added last leave it in the order of their keys. The stage holds on to items
+         * that are finished early, up to {@code window} keys ahead of the next one to leave. A worker that finishes
+         * an item even further ahead waits for the window to move, unless all the other workers of the stage are
+         * already waiting: the window would never move if the item it waits for were stuck in the queue behind
+         * them. Such items are held ahead of the window instead, but no more items are let into the stages since
+         * the previous reordering than the window plus what their workers can work on at once, so what is held
+         * stays bounded.
+         */
+        public Builder<I, T> reorder(int window) {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("Only the items of a stage can be reordered");
+            }
+            if (window <= 0) {
+                throw new IllegalArgumentException("Window must be positive: " + window);
+            }
+            StageSpec spec = stages.remove(stages.size() - 1);
+            stages.add(new StageSpec(spec.name(), spec.task(), spec.workers(), spec.maxWorkers(), window));
+            return this;
+        }
+
+        /**
+         * Orders the items by a key of their own, rather than the order they are submitted in. Every key from
+         * {@code firstKey} on must be submitted once, or the reordering waits for the missing ones until the end of
+         * the stream. Keys have to be submitted in order, give or take what the stages before the first reordering
+         * may hold: {@link #submit} waits until the key that is missing comes out of the stages, which it never does
+         * if it was not submitted yet.
+         */
+        public Builder<I, T> keyedBy(ToLongFunction<? super I> key, long firstKey) {
+            this.key = key;
+            this.firstKey = firstKey;
+            return this;
+        }
+
+        /**
+         * Capacity of each queue between two stages, and of the queues in front of the first and after the last.
+         * With batching a queue holds up to this many batches.
+         */
+        public Builder<I, T> queueCapacity(int queueCapacity) {
+            if (queueCapacity <= 0) {
+                throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Lets the stages hand items on in batches of up to {@code maxBatchSize} items. A worker that has fewer
+         * items than its current batch size waits up to {@code maxWait} after the first one for more.
+         */
+        public Builder<I, T> batching(int maxBatchSize, long maxWait, TimeUnit unit) {
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+            }
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchWaitNanos = unit.toNanos(maxWait);
+            return this;
+        }
+
+        /**
+         * How often the monitor looks for a bottleneck; 0 turns adding workers off.
+         */
+        public Builder<I, T> monitorInterval(long interval, TimeUnit unit) {
+            this.monitorIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        public PipelineEngine<I, T> build() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("A pipeline needs at least one stage");
+            }
+            return new PipelineEngine<>(this);
+        }
+    }
+
+    private record StageSpec(String name, Task<Object, Object> task, int workers, int maxWorkers, int reorderWindow) {
+    }
+
+    /**
+     * What the queues between the stages carry: single items, or batches of them.
+     */
+    private sealed interface Parcel permits Item, Batch {
+
+        void addTo(Collection<Item> items);
+    }
+
+    /**
+     * An item on its way through the pipeline.
+     */
+    private record Item(Object value, long submittedAtNanos, long key) implements Parcel {
+
+        @Override
+        public void addTo(Collection<Item> items) {
+            items.add(this);
+        }
+    }
+
+    private record Batch(List<Item> items) implements Parcel {
+
+        @Override
+        public void addTo(Collection<Item> items) {
+            items.addAll(this.items);
+        }
+    }
+
+    private class Stage {
+
+        private final String name;
+        private final Task<Object, Object> task;
+        private final int initialWorkers;
+        private final int maxWorkers;
+        private final BlockingQueue<Parcel> input;
+        private final BlockingQueue<Parcel> output;
+        private final List<Worker> workers = new CopyOnWriteArrayList<>();
+        private final LongAdder completedBusyNanos = new LongAdder();
+        private final LongAdder processed = new LongAdder();
+        private final ReentrantLock lifecycleLock = new ReentrantLock();
+        private final List<Resequencer<Item>> reordersFromHere = new ArrayList<>();
+
+        private boolean last;
+        private Stage downstream;
+        private Resequencer<Item> reorder;
+        private Thread reorderer;
+        private volatile int runningWorkers;
+        private boolean draining;
+
+        // Only used by the monitor
+        private long lastBusyNanos;
+        private long lastSampleNanos;
+
+        Stage(StageSpec spec, BlockingQueue<Parcel> input, BlockingQueue<Parcel> output) {
+            this.name = spec.name();
+            this.task = spec.task();
+            this.initialWorkers = spec.workers();
+            this.maxWorkers = spec.maxWorkers();
+            this.input = input;
+            this.output = output;
+        }
+
+        Thread newReorderer() {
+            return new Thread(() -> {
+                try {
+                    for (Item item = reorder.take(); item != null; item = reorder.take()) {
+                        List<Item> items = new ArrayList<>();
+                        items.add(item);
+                        reorder.drainTo(items, maxBatchSize - 1);
+                        if (downstream != null) {
+                            downstream.admit(items.size());
+                        }
+                        forward(items);
+                    }
+                    finish();
+                } catch (InterruptedException e) {
+                    // The pipeline is stopping
+                }
+            }, name + "-reorder");
+        }
+
+        /**
+         * Called where items come into this stage in the order of their keys: when they are submitted, or when the
+         * reordering of the stage before lets them go. Waits while the next reordering has as many items on their
+         * way to it as it may hold.
+         */
+        void admit(int items) throws InterruptedException {
+            if (!reordersFromHere.isEmpty()) {
+                reordersFromHere.get(0).admit(items);
+            }
+        }
+
+        /**
+         * @return false if the stage is already draining the end of the stream
+         */
+        boolean addWorker() {
+            lifecycleLock.lock();
+            try {
+                if (draining) {
+                    return false;
+                }
+                Worker worker = new Worker(this, name + "-" + (workers.size() + 1));
+                workers.add(worker);
+                runningWorkers++;
+                worker.start();
+                return true;
+            } finally {
+                lifecycleLock.unlock();
+            }
+        }
+
+        /**
+         * Called by a worker that took the end of the stream. It hands the end on to another worker of this stage,
+         * unless it is the last one running, which hands it on to the next stage: that way every item taken
+         * before the end has left this stage by then.
+         */
+        void endOfStream() throws InterruptedException {
+            boolean lastRunning;
+            lifecycleLock.lock();
+            try {
+                draining = true;
+                lastRunning = --runningWorkers == 0;
+            } finally {
+                lifecycleLock.unlock();
+            }
+
+            if (!lastRunning) {
+                input.put(END_OF_STREAM);
+            } else {
+                endOfItems();
+            }
+        }
+
+        /**
+         * Called by a worker that a task killed with an {@link Error}. The stage carries on without it: another
+         * worker takes its place while items are still coming, and if it took the end of the stream, or was the
+         * last one still to see it, it hands the end on as any other worker would.
+         */
+        void workerDied(boolean tookEndOfStream) throws InterruptedException {
+            if (tookEndOfStream) {
+                endOfStream();
+                return;
+            }
+
+            boolean lastRunning;
+            lifecycleLock.lock();
+            try {
+                if (!draining) {
+                    addWorker();
+                }
+                lastRunning = --runningWorkers == 0 && draining;
+            } finally {
+                lifecycleLock.unlock();
+            }
+
+            if (lastRunning) {
+                endOfItems();
+            }
+        }
+
+        /**
+         * Called once every worker is done with the items of this stage.
+         */
+        private void endOfItems() throws InterruptedException {
+            if (reorder != null) {
+                reorder.close();
+            } else {
+                finish();
+            }
+        }
+
+        void finish() throws InterruptedException {
+            output.put(END_OF_STREAM);
+            if (last) {
+                monitor.interrupt();
+                completion.complete(latencies.stats());
+            }
+        }
+
+        /**
+         * Leaves a gap for an item dropped in this stage, so that the reorderings after it do not wait for it.
+         */
+        void lose(Item item) {
+            // Only the first reordering let the item in, the ones after it never saw it
+            for (int i = 0; i < reordersFromHere.size(); i++) {
+                reordersFromHere.get(i).skip(item.key(), i == 0);
+            }
+        }
+
+        /**
+         * Hands the items a worker finished on to the next stage, or to the reordering first.
+         */
+        void send(List<Item> results) throws InterruptedException {
+            if (reorder == null) {
+                forward(results);
+                return;
+            }
+            // Lower keys first, so that a worker never waits for the window with the next key in hand
+            results.sort(Comparator.comparingLong(Item::key));
+            for (Item result : results) {
+                reorder.put(result, runningWorkers - 1);
+            }
+        }
+
+        private void forward(List<Item> items) throws InterruptedException {
+            if (last) {
+                long now = System.nanoTime();
+                for (Item item : items) {
+                    latencies.record(now - item.submittedAtNanos());
+                }
+            }
+            if (maxBatchSize > 1) {
+                if (!items.isEmpty()) {
+                    output.put(new Batch(items));
+                }
+            } else {
+                for (Item item : items) {
+                    output.put(item);
+                }
+            }
+        }
+
+        /**
+         * Time spent on items so far, including the items the workers are busy with right now.
+         */
+        long busyNanos(long now) {
+            long busy = completedBusyNanos.sum();
+            for (Worker worker : workers) {
+                long busySince = worker.busySince;
+                if (busySince != 0) {
+                    busy += now - busySince;
+                }
+            }
+            return busy;
+        }
+    }
+
+    private class Worker extends Thread {
+
+        private final Stage stage;
+        private final long startedAt = System.nanoTime();
+        private volatile long busySince;
+        private volatile long stoppedAt;
+
+        Worker(Stage stage, String name) {
+            super(name);
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            List<Item> items = new ArrayList<>();
+            List<Parcel> drained = new ArrayList<>();
+            int batchSize = 1;
+            boolean endOfStream = false;
+            Throwable died = null;
+            try {
+                while (true) {
+                    endOfStream = collect(items, drained, batchSize);
+                    if (maxBatchSize > 1) {
+                        if (items.size() >= batchSize && !stage.input.isEmpty()) {
+                            batchSize = Math.min(batchSize * 2, maxBatchSize);
+                        } else if (items.size() < batchSize) {
+                            batchSize = Math.max(batchSize / 2, 1);
+                        }
+                    }
+
+                    process(items);
+                    items.clear();
+                    if (endOfStream) {
+                        stage.endOfStream();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The pipeline is stopping
+            } catch (RuntimeException | Error e) {
+                died = e;
+                throw e;
+            } finally {
+                stoppedAt = System.nanoTime();
+                if (died != null) {
+                    die(died, items, endOfStream);
+                }
+            }
+        }
+
+        /**
+         * Fails the pipeline with what killed this worker, drops the items it had, and lets the stage finish
+         * without it, so that whoever waits for the end of the stream still sees it.
+         */
+        private void die(Throwable cause, List<Item> items, boolean tookEndOfStream) {
+            completion.completeExceptionally(cause);
+            System.err.printf("%s: dropping %d item(s): %s%n", getName(), items.size(), cause);
+            items.forEach(stage::lose);
+            try {
+                stage.workerDied(tookEndOfStream);
+            } catch (InterruptedException e) {
+                // The pipeline is stopping
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for at least one item, then takes what is queued until there are {@code batchSize} items or the
+         * batch wait is over.
+         *
+         * @return whether the end of the stream was taken as well
+         */
+        private boolean collect(List<Item> items, List<Parcel> drained, int batchSize) throws InterruptedException {
+            Parcel parcel = stage.input.take();
+            if (parcel == END_OF_STREAM) {
+                return true;
+            }
+            parcel.addTo(items);
+
+            long deadline = System.nanoTime() + maxBatchWaitNanos;
+            while (items.size() < batchSize) {
+                drained.clear();
+                stage.input.drainTo(drained, batchSize - items.size());
+                if (drained.isEmpty()) {
+                    long remaining = deadline - System.nanoTime();
+                    parcel = remaining > 0 ? stage.input.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (parcel == null) {
+                        return false;
+                    }
+                    drained.add(parcel);
+                }
+                for (Parcel next : drained) {
+                    if (next == END_OF_STREAM) {
+                        // Nothing comes after the end of the stream
+                        return true;
+                    }
+                    next.addTo(items);
+                }
+            }
+            return false;
+        }
+
+        private void process(List<Item> items) throws InterruptedException {
+            List<Item> results = new ArrayList<>(items.size());
+            long start = System.nanoTime();
+            busySince = start;
+            try {
+                for (Item item : items) {
+                    try {
+                        results.add(new Item(stage.task.apply(item.value()), item.submittedAtNanos(), item.key()));
+                    } catch (RuntimeException e) {
+                        System.err.printf("%s: dropping %s: %s%n", getName(), item.value(), e);
+                        stage.lose(item);
+                    }
+                }
+            } finally {
+                busySince = 0;
+                stage.completedBusyNanos.add(System.nanoTime() - start);
+                stage.processed.add(items.size());
+            }
+
+            stage.send(results);
+        }
+
+        long lifetimeNanos(long now) {
+            long stopped = stoppedAt;
+            return (stopped != 0 ? stopped : now) - startedAt;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package chapter07;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Puts items that arrive out of order back in the order of their keys: every key from the first one on, once.
+ * <p>
+ * Items whose keys are within {@code windowSize} of the next key to take are held in a ring of slots. Putting an item
+ * further ahead waits until the window has moved up far enough, which holds back whoever got ahead. Items that are
+ * put without waiting, see {@link #put(Object, int)}, are held ahead of the window.
+ * <p>
+ * With a {@code capacity}, every item has to be {@link #admit admitted} before it is produced, at a point where items
+ * still come in the order of their keys, and its admission is returned once it is taken. That bounds everything on
+ * its way to the resequencer, including what is held ahead of the window, by the capacity.
+ */
+public class Resequencer<T> {
+
+    private static final Object SKIPPED = new Object();
+    private static final Object SKIPPED_ADMITTED = new Object();
+
+    private final ToLongFunction<? super T> key;
+    private final Object[] window;
+    private final Map<Long, Object> aheadOfWindow = new HashMap<>();
+    private final Semaphore admissions;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition nextArrived = lock.newCondition();
+    private final Condition windowMoved = lock.newCondition();
+
+    private long next;
+    private int held;
+    private int waiting;
+    private boolean closed;
+
+    public Resequencer(ToLongFunction<? super T> key, long firstKey, int windowSize) {
+        this(key, firstKey, windowSize, 0);
+    }
+
+    /**
+     * @param capacity how many items may be admitted and not taken yet, or 0 for no admission at all
+     */
+    public Resequencer(ToLongFunction<? super T> key, long firstKey, int windowSize, int capacity) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        this.key = key;
+        this.window = new Object[windowSize];
+        this.next = firstKey;
+        this.admissions = capacity > 0 ? new Semaphore(capacity) : null;
+    }
+
+    /**
+     * Waits until {@code items} more items may be on their way, without a capacity returns right away. Admitting
+     * items in any other order than that of their keys may wait forever, once the capacity is taken by items that
+     * are waiting for one that was not admitted yet.
+     */
+    public void admit(int items) throws InterruptedException {
+        if (admissions != null) {
+            admissions.acquire(items);
+        }
+    }
+
+    /**
+     * Waits while the key of the item is beyond the window.
+     */
+    public void put(T item) throws InterruptedException {
+        put(item, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #put(Object)}, but only up to {@code maxWaiting} threads wait for the window at the same time.
+     * A thread beyond them holds its item ahead of the window instead. Producers that take their items from a queue
+     * pass the number of their other threads, so that one of them keeps taking items until the one the window waits
+     * for comes along, even if it is queued behind items that are further ahead.
+     */
+    public void put(T item, int maxWaiting) throws InterruptedException {
+        long itemKey = key.applyAsLong(item);
+        lock.lockInterruptibly();
+        try {
+            while (itemKey - next >= window.length && waiting < maxWaiting) {
+                waiting++;
+                try {
+                    windowMoved.await();
+                } finally {
+                    waiting--;
+                }
+            }
+            hold(itemKey, item);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the key pass without an item, for an item that was lost on its way.
+     *
+     * @param admitted whether the item was {@link #admit admitted} before it was lost, so its admission is returned
+     */
+    public void skip(long key, boolean admitted) {
+        lock.lock();
+        try {
+            hold(key, admitted ? SKIPPED_ADMITTED : SKIPPED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the item with the next key.
+     *
+     * @return the item, or null once every item is taken after {@link #close()}
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (held == 0 && closed) {
+                    return null;
+                }
+                Object item = window[slot(next)];
+                if (item != null) {
+                    advance();
+                    if (isItem(item)) {
+                        return (T) item;
+                    }
+                } else if (closed) {
+                    // Keys that never came are gaps to step over
+                    skipToHeld();
+                } else {
+                    nextArrived.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the items that are next in order without waiting, up to {@code maxItems}.
+     *
+     * @return how many items were added to {@code sink}
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super T> sink, int maxItems) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxItems) {
+                Object item = window[slot(next)];
+                if (item == null) {
+                    break;
+                }
+                advance();
+                if (isItem(item)) {
+                    sink.add((T) item);
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * No more items will be put: {@link #take()} returns what is held, in order, stepping over missing keys.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            nextArrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void hold(long itemKey, Object item) {
+        if (itemKey < next) {
+            throw new IllegalArgumentException("Key " + itemKey + " was already taken");
+        }
+        if (itemKey - next < window.length) {
+            int slot = slot(itemKey);
+            if (window[slot] != null) {
+                throw new IllegalArgumentException("Key " + itemKey + " was put twice");
+            }
+            window[slot] = item;
+        } else if (aheadOfWindow.putIfAbsent(itemKey, item) != null) {
+            throw new IllegalArgumentException("Key " + itemKey + " was put twice");
+        }
+        held++;
+        if (itemKey == next) {
+            nextArrived.signal();
+        }
+    }
+
+    private void advance() {
+        int slot = slot(next);
+        Object leaving = window[slot];
+        if (leaving != null) {
+            window[slot] = null;
+            held--;
+            if (admissions != null && leaving != SKIPPED) {
+                admissions.release();
+            }
+        }
+        next++;
+
+        // The key that just came into the window may have been put ahead of it
+        if (!aheadOfWindow.isEmpty()) {
+            long entering = next + window.length - 1;
+            Object item = aheadOfWindow.remove(entering);
+            if (item != null) {
+                window[slot(entering)] = item;
+            }
+        }
+        windowMoved.signalAll();
+    }
+
+    /**
+     * Moves the window up to the lowest key held, when there is none for the next key. Called with items held.
+     */
+    private void skipToHeld() {
+        for (int distance = 1; distance < window.length; distance++) {
+            if (window[slot(next + distance)] != null) {
+                for (int step = 0; step < distance; step++) {
+                    advance();
+                }
+                return;
+            }
+        }
+
+        // The window is empty, so every item held is ahead of it
+        next = Collections.min(aheadOfWindow.keySet());
+        aheadOfWindow.entrySet().removeIf(entry -> {
+            if (entry.getKey() - next >= window.length) {
+                return false;
+            }
+            window[slot(entry.getKey())] = entry.getValue();
+            return true;
+        });
+        windowMoved.signalAll();
+    }
+
+    private static boolean isItem(Object item) {
+        return item != SKIPPED && item != SKIPPED_ADMITTED;
+    }
+
+    private int slot(long key) {
+        return (int) Math.floorMod(key, (long) window.length);
+    }
+}
@@ -0,0 +1,300 @@
+package chapter08.missionA;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bank account whose deposits and withdrawals survive a restart.
+ * <p>
+ * Every mutation is appended to a memory-mapped journal while the account lock is held, so the journal
+ * records the changes in the order they were applied. The caller then waits, without the lock, until the
+ * commit thread has forced the journal to disk. One force covers every record appended since the previous
+ * one, so concurrent callers share the cost of a flush (group commit).
+ * <p>
+ * When the journal is full the balance is written to a snapshot file and the journal starts over from its
+ * beginning, which bounds the number of records a restart has to replay.
+ */
+public final class JournaledBankAccount extends BankAccount implements AutoCloseable {
+
+    private static final int RECORD_SIZE = 3 * Long.BYTES;
+    private static final int DEFAULT_JOURNAL_RECORDS = 1 << 16;
+    private static final long CHECKSUM_SEED = 0x9E3779B97F4A7C15L;
+
+    private final Path directory;
+    private final Path snapshotFile;
+    private final Path snapshotTempFile;
+    private final MappedByteBuffer journal;
+    private final ReentrantLock mutex = new ReentrantLock();
+    private final Condition appended = mutex.newCondition();
+    private final Condition durable = mutex.newCondition();
+    private final Thread committer;
+
+    // Guarded by mutex
+    private long sequence;
+    private long durableSequence;
+    private boolean running = true;
+    private IOException failure;
+
+    public JournaledBankAccount(Path directory) {
+        this(directory, DEFAULT_JOURNAL_RECORDS);
+    }
+
+    /**
+     * Opens the account stored in {@code directory}, creating it if needed, and recovers its balance
+     * from the last snapshot and the journal records written after it.
+     *
+     * @param journalRecords number of records the journal holds before a snapshot is taken
+     */
+    public JournaledBankAccount(Path directory, int journalRecords) {
+        if (journalRecords <= 0) {
+            throw new IllegalArgumentException("Journal size must be positive: " + journalRecords);
+        }
+        this.directory = directory;
+        this.snapshotFile = directory.resolve("account.snapshot");
+        this.snapshotTempFile = directory.resolve("account.snapshot.tmp");
+
+        try {
+            Files.createDirectories(directory);
+            Path journalFile = directory.resolve("account.journal");
+            try (FileChannel channel = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Never map less than an existing journal holds, or its tail would not be replayed
+                long size = Math.max((long) journalRecords * RECORD_SIZE, channel.size() / RECORD_SIZE * RECORD_SIZE);
+                this.journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open the account in " + directory, e);
+        }
+
+        this.committer = new Thread(this::commit, "Journal-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    @Override
+    public void deposit(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("You can't deposit a negative amount fo money");
+        }
+        awaitDurable(append(amount));
+    }
+
+    @Override
+    public void withdraw(long amount) {
+        awaitDurable(append(-amount));
+    }
+
+    @Override
+    public void addBalance(long amount) {
+        awaitDurable(append(amount));
+    }
+
+    @Override
+    public void removeBalance(long amount) {
+        awaitDurable(append(-amount));
+    }
+
+    /**
+     * Stops the commit thread once everything appended is durable, and takes a final snapshot
+     * so that the next start has nothing to replay.
+     */
+    @Override
+    public void close() {
+        mutex.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            appended.signal();
+        } finally {
+            mutex.unlock();
+        }
+
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        mutex.lock();
+        try {
+            if (failure == null) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the snapshot", e);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    private long append(long delta) {
+        mutex.lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Account is closed");
+            }
+            checkFailure();
+            if (delta < 0 && (super.isBalanceZero() || super.getBalance() < -delta)) {
+                throw new IllegalArgumentException("Account does not have sufficient funds");
+            }
+
+            if (!journal.hasRemaining()) {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    failure = e;
+                    durable.signalAll();
+                    checkFailure();
+                }
+            }
+
+            long recordSequence = ++sequence;
+            journal.putLong(recordSequence).putLong(delta).putLong(checksum(recordSequence, delta));
+            super.addBalance(delta);
+            appended.signal();
+            return recordSequence;
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    private void awaitDurable(long recordSequence) {
+        mutex.lock();
+        try {
+            while (durableSequence < recordSequence) {
+                checkFailure();
+                durable.awaitUninterruptibly();
+            }
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    private void commit() {
+        while (true) {
+            long target;
+            int end;
+            mutex.lock();
+            try {
+                while (running && durableSequence == sequence) {
+                    appended.awaitUninterruptibly();
+                }
+                if (durableSequence == sequence) {
+                    return;
+                }
+                target = sequence;
+                end = journal.position();
+            } finally {
+                mutex.unlock();
+            }
+
+            // Appends go on while forcing; whatever they add is picked up by the next round
+            IOException error = null;
+            try {
+                journal.force(0, end);
+            } catch (UncheckedIOException e) {
+                error = e.getCause();
+            }
+
+            mutex.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                    durable.signalAll();
+                    return;
+                }
+                // A snapshot taken meanwhile may already have made more records durable
+                durableSequence = Math.max(durableSequence, target);
+                durable.signalAll();
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the balance and the sequence number of the last record to a new snapshot, swaps it in
+     * and restarts the journal. Called with the mutex held.
+     */
+    private void snapshot() throws IOException {
+        long balance = super.getBalance();
+        ByteBuffer snapshot = ByteBuffer.allocate(RECORD_SIZE)
+            .putLong(sequence)
+            .putLong(balance)
+            .putLong(checksum(sequence, balance))
+            .flip();
+
+        try (FileChannel channel = FileChannel.open(snapshotTempFile,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(true);
+        }
+        Files.move(snapshotTempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE);
+        // The rename is only durable once the directory is, and the journal must not start over before that
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+
+        journal.position(0);
+        durableSequence = sequence;
+        durable.signalAll();
+    }
+
+    private void recover() throws IOException {
+        long balance = 0L;
+        if (Files.exists(snapshotFile)) {
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+            if (snapshot.remaining() != RECORD_SIZE) {
+                throw new IOException("Corrupt snapshot: " + snapshotFile);
+            }
+            sequence = snapshot.getLong();
+            balance = snapshot.getLong();
+            if (snapshot.getLong() != checksum(sequence, balance)) {
+                throw new IOException("Corrupt snapshot: " + snapshotFile);
+            }
+        }
+
+        // Records left over from before the last snapshot carry older sequence numbers, and a torn record
+        // fails its checksum, so the replay stops at the first record that does not follow the previous one
+        while (journal.hasRemaining()) {
+            int position = journal.position();
+            long recordSequence = journal.getLong(position);
+            long delta = journal.getLong(position + Long.BYTES);
+            if (recordSequence != sequence + 1
+                || journal.getLong(position + 2 * Long.BYTES) != checksum(recordSequence, delta)) {
+                break;
+            }
+            balance += delta;
+            sequence = recordSequence;
+            journal.position(position + RECORD_SIZE);
+        }
+
+        durableSequence = sequence;
+        super.addBalance(balance);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Journal failed", failure);
+        }
+    }
+
+    private static long checksum(long sequence, long value) {
+        return Long.rotateLeft(sequence * CHECKSUM_SEED, 29) ^ value * CHECKSUM_SEED ^ CHECKSUM_SEED;
+    }
+}
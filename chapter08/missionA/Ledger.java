@@ -0,0 +1,271 @@
+package chapter08.missionA;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Balances of many accounts, kept in plain {@code long[]} shards with one lock per shard.
+ * <p>
+ * An account lives in shard {@code id % shards}. A transfer locks the shards of both accounts, always the
+ * lower shard first, so two opposite transfers can never wait for each other. A {@link TransferBatch}
+ * locks every shard it touches once, in the same order, and applies all of its transfers in one go.
+ */
+public class Ledger {
+
+    private final long[][] balances;
+    private final ReentrantLock[] locks;
+    private final int shardMask;
+    private final int shardBits;
+    private final int accounts;
+
+    /**
+     * @param accounts number of accounts, with ids from 0 to {@code accounts - 1}
+     * @param shards   number of shards, rounded up to a power of two
+     */
+    public Ledger(int accounts, int shards) {
+        if (accounts <= 0 || shards <= 0) {
+            throw new IllegalArgumentException("Accounts and shards must be positive");
+        }
+        int shardCount = Integer.highestOneBit(Math.max(shards * 2 - 1, 1));
+
+        this.accounts = accounts;
+        this.shardMask = shardCount - 1;
+        this.shardBits = Integer.numberOfTrailingZeros(shardCount);
+        this.balances = new long[shardCount][];
+        this.locks = new ReentrantLock[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            balances[shard] = new long[(accounts + shardCount - 1 - shard) / shardCount];
+            locks[shard] = new ReentrantLock();
+        }
+    }
+
+    public int accounts() {
+        return accounts;
+    }
+
+    public long getBalance(int account) {
+        int shard = shardOf(account);
+        locks[shard].lock();
+        try {
+            return balances[shard][account >>> shardBits];
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    public void deposit(int account, long amount) {
+        checkAmount(amount);
+        int shard = shardOf(account);
+        locks[shard].lock();
+        try {
+            balances[shard][account >>> shardBits] += amount;
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    public void withdraw(int account, long amount) {
+        checkAmount(amount);
+        int shard = shardOf(account);
+        locks[shard].lock();
+        try {
+            if (!tryRemove(shard, account, amount)) {
+                throw new IllegalArgumentException("Account does not have sufficient funds");
+            }
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    public void transfer(int from, int to, long amount) {
+        checkAmount(amount);
+        int fromShard = shardOf(from);
+        int toShard = shardOf(to);
+        int first = Math.min(fromShard, toShard);
+        int second = Math.max(fromShard, toShard);
+
+        locks[first].lock();
+        if (second != first) {
+            locks[second].lock();
+        }
+        try {
+            if (!tryRemove(fromShard, from, amount)) {
+                throw new IllegalArgumentException("Account does not have sufficient funds");
+            }
+            balances[toShard][to >>> shardBits] += amount;
+        } finally {
+            if (second != first) {
+                locks[second].unlock();
+            }
+            locks[first].unlock();
+        }
+    }
+
+    /**
+     * Applies the transfers of the batch in order while holding the lock of every shard they touch.
+     * Transfers whose source account is short of funds at that point are skipped and marked as rejected.
+     *
+     * @return the number of transfers applied
+     */
+    public int transferAll(TransferBatch batch) {
+        boolean[] touched = new boolean[locks.length];
+        for (int i = 0; i < batch.size(); i++) {
+            touched[shardOf(batch.from(i))] = true;
+            touched[shardOf(batch.to(i))] = true;
+        }
+
+        for (int shard = 0; shard < locks.length; shard++) {
+            if (touched[shard]) {
+                locks[shard].lock();
+            }
+        }
+        try {
+            int applied = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                int from = batch.from(i);
+                int to = batch.to(i);
+                if (tryRemove(shardOf(from), from, batch.amount(i))) {
+                    balances[shardOf(to)][to >>> shardBits] += batch.amount(i);
+                    applied++;
+                } else {
+                    batch.reject(i);
+                }
+            }
+            return applied;
+        } finally {
+            for (int shard = locks.length - 1; shard >= 0; shard--) {
+                if (touched[shard]) {
+                    locks[shard].unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link BankAccount} backed by one account of this ledger.
+     */
+    public BankAccount account(int id) {
+        shardOf(id);
+        return new LedgerAccount(id);
+    }
+
+    private boolean tryRemove(int shard, int account, long amount) {
+        long[] shardBalances = balances[shard];
+        int index = account >>> shardBits;
+        if (shardBalances[index] < amount) {
+            return false;
+        }
+        shardBalances[index] -= amount;
+        return true;
+    }
+
+    private int shardOf(int account) {
+        if (account < 0 || account >= accounts) {
+            throw new IllegalArgumentException("No such account: " + account);
+        }
+        return account & shardMask;
+    }
+
+    private static void checkAmount(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
+        }
+    }
+
+    /**
+     * Transfers to apply together, stored as parallel primitive arrays. A batch can be cleared and reused.
+     */
+    public static class TransferBatch {
+
+        private final int[] from;
+        private final int[] to;
+        private final long[] amounts;
+        private final boolean[] rejected;
+        private int size;
+
+        public TransferBatch(int capacity) {
+            from = new int[capacity];
+            to = new int[capacity];
+            amounts = new long[capacity];
+            rejected = new boolean[capacity];
+        }
+
+        public void add(int fromAccount, int toAccount, long amount) {
+            checkAmount(amount);
+            if (size == from.length) {
+                throw new IllegalStateException("Batch is full");
+            }
+            from[size] = fromAccount;
+            to[size] = toAccount;
+            amounts[size] = amount;
+            rejected[size] = false;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isRejected(int index) {
+            return rejected[index];
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        int from(int index) {
+            return from[index];
+        }
+
+        int to(int index) {
+            return to[index];
+        }
+
+        long amount(int index) {
+            return amounts[index];
+        }
+
+        void reject(int index) {
+            rejected[index] = true;
+        }
+    }
+
+    private class LedgerAccount extends BankAccount {
+
+        private final int id;
+
+        LedgerAccount(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void deposit(long amount) {
+            Ledger.this.deposit(id, amount);
+        }
+
+        @Override
+        public void withdraw(long amount) {
+            Ledger.this.withdraw(id, amount);
+        }
+
+        @Override
+        public boolean isBalanceZero() {
+            return getBalance() == 0L;
+        }
+
+        @Override
+        public void addBalance(long amount) {
+            Ledger.this.deposit(id, amount);
+        }
+
+        @Override
+        public void removeBalance(long amount) {
+            Ledger.this.withdraw(id, amount);
+        }
+
+        @Override
+        public long getBalance() {
+            return Ledger.this.getBalance(id);
+        }
+    }
+}
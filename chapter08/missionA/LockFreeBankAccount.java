@@ -0,0 +1,90 @@
+package chapter08.missionA;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bank account that stays consistent under contention without taking a lock.
+ * <p>
+ * Deposits only ever add money, so they go to a striped {@link LongAdder} and concurrent ATMs rarely touch
+ * the same cell. Withdrawals compare-and-set the {@code available} balance, which therefore never drops
+ * below zero; when it is short, the deposits collected so far are drained into it first.
+ */
+public class LockFreeBankAccount extends BankAccount {
+
+    private final AtomicLong available = new AtomicLong();
+    private final LongAdder deposits = new LongAdder();
+    private final AtomicInteger draining = new AtomicInteger();
+
+    @Override
+    public void deposit(long amount) {
+        if (amount > 0) {
+            addBalance(amount);
+        } else {
+            throw new IllegalArgumentException("You can't deposit a negative amount fo money");
+        }
+    }
+
+    @Override
+    public void withdraw(long amount) {
+        while (true) {
+            long current = available.get();
+            if (current >= amount) {
+                if (available.compareAndSet(current, current - amount)) {
+                    return;
+                }
+                continue;
+            }
+
+            if (drainDeposits() > 0) {
+                continue;
+            }
+            // Another withdrawal may have taken the deposits and not yet moved them into the balance
+            if (draining.get() > 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (available.get() >= amount) {
+                continue;
+            }
+            throw new IllegalArgumentException("Account does not have sufficient funds");
+        }
+    }
+
+    @Override
+    public boolean isBalanceZero() {
+        return getBalance() == 0L;
+    }
+
+    @Override
+    public void addBalance(long amount) {
+        deposits.add(amount);
+    }
+
+    @Override
+    public void removeBalance(long amount) {
+        available.addAndGet(-amount);
+    }
+
+    /**
+     * The balance as of some moment during the call; exact once concurrent transactions have finished.
+     */
+    @Override
+    public long getBalance() {
+        return available.get() + deposits.sum();
+    }
+
+    private long drainDeposits() {
+        draining.incrementAndGet();
+        try {
+            long drained = deposits.sumThenReset();
+            if (drained != 0) {
+                available.addAndGet(drained);
+            }
+            return drained;
+        } finally {
+            draining.decrementAndGet();
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package chapter08.missionA;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 public class Main {
 
     private static final int ATM_NUMBER = 1000;
@@ -20,6 +24,45 @@ public class Main {
 
         System.out.println("Balance of synced account after concurrent transactions:");
         System.out.printf("Actual: %d%nExpected: 0%n", account.getBalance());
+
+        // Test LockFreeBankAccount
+        account = new LockFreeBankAccount();
+        testAtms(account);
+
+        System.out.println("Balance of lock-free account after concurrent transactions:");
+        System.out.printf("Actual: %d%nExpected: 0%n", account.getBalance());
+
+        // Test an account of a Ledger
+        account = new Ledger(1024, 16).account(42);
+        testAtms(account);
+
+        System.out.println("Balance of ledger account after concurrent transactions:");
+        System.out.printf("Actual: %d%nExpected: 0%n", account.getBalance());
+
+        // Test JournaledBankAccount, then open it again from its files
+        Path directory = createTempDirectory();
+        try (JournaledBankAccount journaled = new JournaledBankAccount(directory)) {
+            testAtms(journaled);
+            journaled.deposit(100L);
+        }
+        try (JournaledBankAccount recovered = new JournaledBankAccount(directory)) {
+            System.out.println("Balance of journaled account after a restart:");
+            System.out.printf("Actual: %d%nExpected: 100%n", recovered.getBalance());
+        }
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            Path directory = Files.createTempDirectory("bank-account");
+            // Deleted in reverse order of registration, so the directory goes last
+            directory.toFile().deleteOnExit();
+            for (String file : new String[]{"account.journal", "account.snapshot", "account.snapshot.tmp"}) {
+                directory.resolve(file).toFile().deleteOnExit();
+            }
+            return directory;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private static void testAtms(BankAccount account) {
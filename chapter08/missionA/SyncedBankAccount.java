@@ -1,5 +1,6 @@
 package chapter08.missionA;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class SyncedBankAccount extends UnsyncedBankAccount {
@@ -9,14 +10,55 @@ public class SyncedBankAccount extends UnsyncedBankAccount {
     @Override
     public void deposit(long amount) {
         mutex.lock();
-        super.deposit(amount);
-        mutex.unlock();
+        try {
+            super.deposit(amount);
+        } finally {
+            mutex.unlock();
+        }
     }
 
     @Override
     public void withdraw(long amount) {
         mutex.lock();
-        super.withdraw(amount);
-        mutex.unlock();
+        try {
+            super.withdraw(amount);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Deposits {@code amount} unless the account stays locked by others for longer than {@code timeout}.
+     *
+     * @return false if the lock could not be acquired in time, in which case nothing was deposited
+     */
+    public boolean tryDeposit(long amount, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!mutex.tryLock(timeout, unit)) {
+            return false;
+        }
+        try {
+            super.deposit(amount);
+            return true;
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Withdraws {@code amount} unless the account stays locked by others for longer than {@code timeout}.
+     *
+     * @return false if the lock could not be acquired in time, in which case nothing was withdrawn
+     * @throws IllegalArgumentException if the lock was acquired but the funds are insufficient
+     */
+    public boolean tryWithdraw(long amount, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!mutex.tryLock(timeout, unit)) {
+            return false;
+        }
+        try {
+            super.withdraw(amount);
+            return true;
+        } finally {
+            mutex.unlock();
+        }
     }
 }
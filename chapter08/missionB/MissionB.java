@@ -3,17 +3,61 @@ package chapter08.missionB;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class MissionB {
 
+    private static final long PATIENCE_MILLIS = 1500L;
+
     public static void main(String[] args) {
         int numberOfCars = 10;
         Garage garage = new Garage();
         testGarage(garage, numberOfCars);
 
         System.out.println("Number of parked cars after a busy day:");
-        System.out.printf("Actual: %d%nExpected: 0", garage.countParkedCars());
+        System.out.printf("Actual: %d%nExpected: 0%n", garage.countParkedCars());
+
+        int turnedAway = testImpatientGarage(new Garage(), numberOfCars);
+        System.out.printf("%d of %d impatient drivers gave up waiting for a spot%n", turnedAway, numberOfCars);
+    }
+
+    /**
+     * Every driver waits at most {@link #PATIENCE_MILLIS} for a spot and drives off if none frees up.
+     *
+     * @return the number of drivers who gave up
+     */
+    private static int testImpatientGarage(Garage garage, int numberOfCars) {
+        AtomicInteger turnedAway = new AtomicInteger();
+        Thread[] threads = new Thread[numberOfCars];
+        for (int i = 0; i < numberOfCars; i++) {
+            String carName = "Impatient car #" + (i + 1);
+            Thread thread = new Thread(() -> {
+                try {
+                    if (garage.tryEnter(carName, PATIENCE_MILLIS, TimeUnit.MILLISECONDS)) {
+                        Thread.sleep((long) (1000 + Math.random() * 1000));
+                        garage.exit(carName);
+                    } else {
+                        System.out.println(carName + " gave up");
+                        turnedAway.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[i] = thread;
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return turnedAway.get();
     }
 
     private static void testGarage(Garage garage, int numberOfCars) {
@@ -65,21 +109,62 @@ public class MissionB {
         public void enter(String carName) {
             try {
                 semaphore.acquire();
-                carsLock.lock();
-                parkedCars.add(carName);
-                System.out.println(carName + " parked");
-                carsLock.unlock();
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            carsLock.lock();
+            park(carName);
+        }
+
+        /**
+         * Enters unless the garage stays full, or its list of cars stays locked, for longer than {@code timeout}.
+         *
+         * @return false if the car gave up, in which case it holds no spot
+         */
+        public boolean tryEnter(String carName, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!semaphore.tryAcquire(timeout, unit)) {
+                return false;
+            }
+
+            boolean locked = false;
+            try {
+                locked = carsLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } finally {
+                if (!locked) {
+                    semaphore.release();
+                }
+            }
+            if (locked) {
+                park(carName);
+            }
+            return locked;
         }
 
         public void exit(String carName) {
             carsLock.lock();
-            parkedCars.remove(carName);
-            System.out.println(carName + " leaving");
-            semaphore.release();
-            carsLock.unlock();
+            try {
+                parkedCars.remove(carName);
+                System.out.println(carName + " leaving");
+            } finally {
+                carsLock.unlock();
+                semaphore.release();
+            }
+        }
+
+        /**
+         * Records a car that holds a spot and {@code carsLock}. Unlocks, and gives the spot back if recording fails.
+         */
+        private void park(String carName) {
+            try {
+                parkedCars.add(carName);
+                System.out.println(carName + " parked");
+            } catch (RuntimeException | Error e) {
+                semaphore.release();
+                throw e;
+            } finally {
+                carsLock.unlock();
+            }
         }
     }
 }
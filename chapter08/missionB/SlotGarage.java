@@ -0,0 +1,174 @@
+package chapter08.missionB;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A garage for many spots and busy traffic: entering and leaving take constant time and no lock.
+ * <p>
+ * The semaphore counts free spots as before. Which spots are free is kept in a lock-free stack of spot numbers,
+ * and a concurrent map tells which spot every car is parked in, so leaving does not search a list.
+ */
+public class SlotGarage {
+
+    private static final int EMPTY = -1;
+    private static final long INDEX_MASK = 0xFFFF_FFFFL;
+
+    private final Semaphore semaphore;
+    private final ConcurrentHashMap<String, Integer> parkedCars = new ConcurrentHashMap<>();
+    private final AtomicInteger occupancy = new AtomicInteger();
+
+    // The free spots form a linked stack: head holds the top spot in its low half and a version in its high half,
+    // bumped on every change, so that a spot popped and pushed back in between does not fool a compareAndSet (ABA)
+    private final int[] nextFree;
+    private final AtomicLong head;
+
+    /**
+     * @param fair whether cars get spots in the order they started waiting, at the cost of throughput
+     */
+    public SlotGarage(int spots, boolean fair) {
+        if (spots <= 0) {
+            throw new IllegalArgumentException("Spots must be positive: " + spots);
+        }
+        semaphore = new Semaphore(spots, fair);
+        nextFree = new int[spots];
+        for (int spot = 0; spot < spots; spot++) {
+            nextFree[spot] = spot + 1 < spots ? spot + 1 : EMPTY;
+        }
+        head = new AtomicLong(0);
+    }
+
+    public int capacity() {
+        return nextFree.length;
+    }
+
+    public int countParkedCars() {
+        return occupancy.get();
+    }
+
+    /**
+     * @return the spot the car is parked in, or -1 if it is not parked here
+     */
+    public int spotOf(String carName) {
+        Integer spot = parkedCars.get(carName);
+        return spot != null ? spot : EMPTY;
+    }
+
+    /**
+     * Waits for a free spot and parks the car in it.
+     *
+     * @return the spot the car is parked in
+     */
+    public int enter(String carName) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return park(carName);
+    }
+
+    /**
+     * Parks the car unless the garage stays full for longer than {@code timeout}.
+     *
+     * @return the spot the car is parked in, or -1 if it gave up
+     */
+    public int tryEnter(String carName, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!semaphore.tryAcquire(timeout, unit)) {
+            return EMPTY;
+        }
+        return park(carName);
+    }
+
+    /**
+     * @return the spot the car has left
+     */
+    public int exit(String carName) {
+        Integer spot = parkedCars.remove(carName);
+        if (spot == null) {
+            throw new IllegalArgumentException(carName + " is not parked here");
+        }
+        occupancy.decrementAndGet();
+        pushFree(spot);
+        semaphore.release();
+        return spot;
+    }
+
+    /**
+     * Called with a permit held, so a free spot is guaranteed to be on the stack.
+     */
+    private int park(String carName) {
+        int spot = popFree();
+        if (parkedCars.putIfAbsent(carName, spot) != null) {
+            pushFree(spot);
+            semaphore.release();
+            throw new IllegalStateException(carName + " is already parked");
+        }
+        occupancy.incrementAndGet();
+        return spot;
+    }
+
+    private int popFree() {
+        while (true) {
+            long current = head.get();
+            int spot = (int) current;
+            if (spot == EMPTY) {
+                throw new IllegalStateException("No free spot although a permit was acquired");
+            }
+            if (head.compareAndSet(current, next(current, nextFree[spot]))) {
+                return spot;
+            }
+        }
+    }
+
+    private void pushFree(int spot) {
+        while (true) {
+            long current = head.get();
+            nextFree[spot] = (int) current;
+            if (head.compareAndSet(current, next(current, spot))) {
+                return;
+            }
+        }
+    }
+
+    private static long next(long current, int spot) {
+        return (current & ~INDEX_MASK) + (1L << 32) | spot & INDEX_MASK;
+    }
+
+    /**
+     * Usage: {@code SlotGarage [spots] [drivers] [visits]}. Every driver parks and leaves {@code visits} times
+     * with a different car each time.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int spots = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int drivers = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int visits = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        SlotGarage garage = new SlotGarage(spots, false);
+
+        Thread[] threads = new Thread[drivers];
+        long startTimeNanos = System.nanoTime();
+        for (int i = 0; i < drivers; i++) {
+            String driver = "Driver #" + (i + 1);
+            threads[i] = new Thread(() -> {
+                for (int visit = 0; visit < visits; visit++) {
+                    String carName = driver + " car " + visit;
+                    garage.enter(carName);
+                    garage.exit(carName);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long processTimeNanos = System.nanoTime() - startTimeNanos;
+
+        System.out.printf("%d visits by %d drivers to %d spots in %d ms%n", (long) drivers * visits, drivers, spots,
+            TimeUnit.NANOSECONDS.toMillis(processTimeNanos));
+        System.out.println("Number of parked cars after a busy day:");
+        System.out.printf("Actual: %d%nExpected: 0%n", garage.countParkedCars());
+    }
+}
@@ -17,6 +17,13 @@ public class Chopstick {
         lock.lock();
     }
 
+    /**
+     * Takes the chopstick only if nobody holds it right now.
+     */
+    public boolean tryAcquire() {
+        return lock.tryLock();
+    }
+
     public void release() {
         lock.unlock();
     }
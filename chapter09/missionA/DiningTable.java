@@ -0,0 +1,332 @@
+package chapter09.missionA;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Any number of philosophers around one table, with one chopstick between every two of them, eating for a while
+ * with each of the strategies that keep them from deadlocking. Reports how many meals they had, how evenly the meals
+ * were spread among them, and how long they waited for their chopsticks.
+ */
+public class DiningTable {
+
+    private static final long EATING_NANOS = 5_000L;
+    private static final long THINKING_NANOS = 5_000L;
+
+    public enum Strategy {
+        /** One waiter hands out the chopsticks, to one philosopher at a time, like {@link Waiter}. */
+        WAITER,
+        /** Every philosopher picks up the lower numbered of their chopsticks first, so no cycle of waits can form. */
+        RESOURCE_ORDERING,
+        /** Philosophers who cannot get their second chopstick put the first one down and try again a bit later. */
+        TRY_LOCK,
+        /**
+         * Chandy–Misra: chopsticks are dirty after use and clean once handed over. A philosopher gives a dirty
+         * chopstick to a neighbour who asks for it, but keeps a clean one until they have eaten.
+         */
+        CHANDY_MISRA;
+
+        static Strategy of(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    public record Result(Strategy strategy, long[] meals, long[] waitNanos, long elapsedNanos) {
+
+        public long totalMeals() {
+            return Arrays.stream(meals).sum();
+        }
+
+        public double mealsPerSecond() {
+            return totalMeals() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        /**
+         * Standard deviation of the meals per philosopher, relative to their mean: 0 when everyone ate as much.
+         */
+        public double mealSpread() {
+            double mean = (double) totalMeals() / meals.length;
+            double variance = Arrays.stream(meals).mapToDouble(m -> (m - mean) * (m - mean)).sum() / meals.length;
+            return mean == 0 ? 0 : Math.sqrt(variance) / mean;
+        }
+
+        public double waitMicrosPerMeal() {
+            return Arrays.stream(waitNanos).sum() / 1000.0 / Math.max(totalMeals(), 1);
+        }
+    }
+
+    private final int philosophers;
+    private final Strategy strategy;
+
+    public DiningTable(int philosophers, Strategy strategy) {
+        if (philosophers < 2) {
+            throw new IllegalArgumentException("A table needs at least 2 philosophers: " + philosophers);
+        }
+        this.philosophers = philosophers;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Lets every philosopher think and eat on a thread of their own for {@code duration}.
+     */
+    public Result dine(long duration, TimeUnit unit) throws InterruptedException {
+        Chopsticks chopsticks = switch (strategy) {
+            case WAITER -> new WaiterChopsticks();
+            case RESOURCE_ORDERING -> new OrderedChopsticks();
+            case TRY_LOCK -> new BackoffChopsticks();
+            case CHANDY_MISRA -> new ChandyMisraChopsticks();
+        };
+
+        long[] meals = new long[philosophers];
+        long[] waitNanos = new long[philosophers];
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        Thread[] threads = new Thread[philosophers];
+
+        long startTimeNanos = System.nanoTime();
+        for (int i = 0; i < philosophers; i++) {
+            int philosopher = i;
+            threads[i] = new Thread(() -> {
+                // Neighbouring counters share a cache line, so each philosopher counts in locals and stores once
+                long eaten = 0;
+                long waited = 0;
+                while (System.nanoTime() - deadline < 0) {
+                    long hungrySince = System.nanoTime();
+                    chopsticks.pickUp(philosopher);
+                    waited += System.nanoTime() - hungrySince;
+
+                    work(EATING_NANOS);
+                    eaten++;
+                    chopsticks.putDown(philosopher);
+
+                    work(THINKING_NANOS);
+                }
+                meals[philosopher] = eaten;
+                waitNanos[philosopher] = waited;
+            }, "Philosopher #" + (i + 1));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return new Result(strategy, meals, waitNanos, System.nanoTime() - startTimeNanos);
+    }
+
+    private static void work(long nanos) {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private int left(int philosopher) {
+        return philosopher;
+    }
+
+    private int right(int philosopher) {
+        return (philosopher + 1) % philosophers;
+    }
+
+    private Chopstick[] newChopsticks() {
+        Chopstick[] chopsticks = new Chopstick[philosophers];
+        for (int i = 0; i < philosophers; i++) {
+            chopsticks[i] = new Chopstick("chopstick_" + i);
+        }
+        return chopsticks;
+    }
+
+    private interface Chopsticks {
+
+        void pickUp(int philosopher);
+
+        void putDown(int philosopher);
+    }
+
+    private class WaiterChopsticks implements Chopsticks {
+
+        private final Lock waiter = new ReentrantLock();
+        private final Chopstick[] chopsticks = newChopsticks();
+
+        @Override
+        public void pickUp(int philosopher) {
+            waiter.lock();
+            try {
+                chopsticks[left(philosopher)].acquire();
+                chopsticks[right(philosopher)].acquire();
+            } finally {
+                waiter.unlock();
+            }
+        }
+
+        @Override
+        public void putDown(int philosopher) {
+            chopsticks[right(philosopher)].release();
+            chopsticks[left(philosopher)].release();
+        }
+    }
+
+    private class OrderedChopsticks implements Chopsticks {
+
+        private final Chopstick[] chopsticks = newChopsticks();
+
+        @Override
+        public void pickUp(int philosopher) {
+            chopsticks[Math.min(left(philosopher), right(philosopher))].acquire();
+            chopsticks[Math.max(left(philosopher), right(philosopher))].acquire();
+        }
+
+        @Override
+        public void putDown(int philosopher) {
+            chopsticks[right(philosopher)].release();
+            chopsticks[left(philosopher)].release();
+        }
+    }
+
+    private class BackoffChopsticks implements Chopsticks {
+
+        private static final long MIN_BACKOFF_NANOS = 1_000L;
+        private static final long MAX_BACKOFF_NANOS = 1_000_000L;
+
+        private final Chopstick[] chopsticks = newChopsticks();
+
+        @Override
+        public void pickUp(int philosopher) {
+            Chopstick first = chopsticks[left(philosopher)];
+            Chopstick second = chopsticks[right(philosopher)];
+            long backoff = MIN_BACKOFF_NANOS;
+
+            while (true) {
+                first.acquire();
+                if (second.tryAcquire()) {
+                    return;
+                }
+                first.release();
+
+                // A random pause keeps neighbours from retrying in lockstep
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(backoff) + 1);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+            }
+        }
+
+        @Override
+        public void putDown(int philosopher) {
+            chopsticks[right(philosopher)].release();
+            chopsticks[left(philosopher)].release();
+        }
+    }
+
+    /**
+     * Asking a neighbour for a chopstick is waiting on it: the chopstick changes hands as soon as it is dirty and
+     * its holder is not eating. Initially every chopstick is dirty and held by the lower numbered of its two
+     * philosophers, which keeps the order of who yields to whom free of cycles.
+     */
+    private class ChandyMisraChopsticks implements Chopsticks {
+
+        private final Fork[] forks = new Fork[philosophers];
+
+        ChandyMisraChopsticks() {
+            for (int i = 0; i < philosophers; i++) {
+                // Fork i lies between philosophers i and i + 1
+                forks[i] = new Fork(Math.min(i, right(i)));
+            }
+        }
+
+        @Override
+        public void pickUp(int philosopher) {
+            Fork left = forks[left(philosopher)];
+            Fork right = forks[right(philosopher)];
+            Fork lower = left(philosopher) < right(philosopher) ? left : right;
+            Fork upper = lower == left ? right : left;
+
+            while (true) {
+                left.request(philosopher);
+                right.request(philosopher);
+
+                // A dirty fork may have been handed on while waiting for the other one: check both at once
+                lower.lock.lock();
+                upper.lock.lock();
+                try {
+                    if (left.owner == philosopher && right.owner == philosopher) {
+                        left.inUse = true;
+                        right.inUse = true;
+                        return;
+                    }
+                } finally {
+                    upper.lock.unlock();
+                    lower.lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void putDown(int philosopher) {
+            forks[left(philosopher)].release();
+            forks[right(philosopher)].release();
+        }
+    }
+
+    private static class Fork {
+
+        private final Lock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        private int owner;
+        private boolean dirty = true;
+        private boolean inUse;
+
+        Fork(int owner) {
+            this.owner = owner;
+        }
+
+        void request(int philosopher) {
+            lock.lock();
+            try {
+                while (owner != philosopher) {
+                    if (dirty && !inUse) {
+                        owner = philosopher;
+                        dirty = false;
+                        break;
+                    }
+                    changed.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inUse = false;
+                dirty = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Usage: {@code DiningTable [philosophers] [seconds] [waiter|resource-ordering|try-lock|chandy-misra]}.
+     * Without a strategy every strategy is run in turn.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int philosophers = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        Strategy[] strategies = args.length > 2 ? new Strategy[]{Strategy.of(args[2])} : Strategy.values();
+
+        System.out.printf("%d philosophers, %d s per strategy%n", philosophers, seconds);
+        for (Strategy strategy : strategies) {
+            Result result = new DiningTable(philosophers, strategy).dine(seconds, TimeUnit.SECONDS);
+            System.out.printf("%-17s %10.0f meals/s, meals per philosopher %d..%d (spread %.2f), wait %.1f us per meal%n",
+                strategy, result.mealsPerSecond(),
+                Arrays.stream(result.meals()).min().orElse(0), Arrays.stream(result.meals()).max().orElse(0),
+                result.mealSpread(), result.waitMicrosPerMeal());
+        }
+    }
+}
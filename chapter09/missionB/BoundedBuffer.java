@@ -0,0 +1,191 @@
+package chapter09.missionB;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The producer/consumer buffer of Mission B: {@code empty} counts free slots, {@code full} counts
+ * items ready to be taken, and a mutex guards the slots and the two indices.
+ */
+public class BoundedBuffer<T> implements ProducerConsumerBuffer<T> {
+
+    private final Object[] items;
+    private final Semaphore empty;
+    private final Semaphore full = new Semaphore(0);
+    private final Lock mutex = new ReentrantLock();
+
+    private int putIndex;
+    private int takeIndex;
+
+    public BoundedBuffer(int capacity) {
+        items = new Object[capacity];
+        empty = new Semaphore(capacity);
+    }
+
+    @Override
+    public int put(T item) throws InterruptedException {
+        empty.acquire();
+        return insert(item);
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        full.acquire();
+        return extract().item();
+    }
+
+    @Override
+    public Taken<T> takeFromSlot() throws InterruptedException {
+        full.acquire();
+        return extract();
+    }
+
+    @Override
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!empty.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        insert(item);
+        return true;
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!full.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return extract().item();
+    }
+
+    /**
+     * Puts every item, in order, claiming the slots for up to {@link #capacity()} of them with one acquire and
+     * filling them in one lock section. Items of other producers may come in between such chunks.
+     * <p>
+     * A chunk waits until all its slots are free instead of filling them as they come: a producer holding
+     * some slots while waiting for more could block every other producer that does the same.
+     */
+    public void putAll(List<? extends T> items) throws InterruptedException {
+        int next = 0;
+        while (next < items.size()) {
+            int count = Math.min(items.size() - next, this.items.length);
+            empty.acquire(count);
+            mutex.lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    this.items[putIndex] = items.get(next++);
+                    putIndex = nextIndex(putIndex);
+                }
+            } finally {
+                mutex.unlock();
+                full.release(count);
+            }
+        }
+    }
+
+    /**
+     * Takes every item that is available, up to {@code max}, in one lock section, without waiting.
+     *
+     * @return the number of items added to {@code sink}
+     */
+    public int drainTo(Collection<? super T> sink, int max) {
+        int available = full.drainPermits();
+        int count = Math.min(available, max);
+        full.release(available - count);
+        extractAll(sink, count);
+        return count;
+    }
+
+    /**
+     * Like {@link #drainTo}, but waits until there is at least one item.
+     */
+    public int takeAll(Collection<? super T> sink, int max) throws InterruptedException {
+        if (max <= 0) {
+            return 0;
+        }
+        int count = acquireUpTo(full, max);
+        extractAll(sink, count);
+        return count;
+    }
+
+    @Override
+    public int capacity() {
+        return items.length;
+    }
+
+    /**
+     * Called with a permit of {@code empty} held.
+     */
+    private int insert(T item) {
+        mutex.lock();
+        try {
+            int slot = putIndex;
+            items[slot] = item;
+            putIndex = nextIndex(slot);
+            return slot;
+        } finally {
+            mutex.unlock();
+            full.release();
+        }
+    }
+
+    /**
+     * Called with a permit of {@code full} held.
+     */
+    @SuppressWarnings("unchecked")
+    private Taken<T> extract() {
+        mutex.lock();
+        try {
+            int slot = takeIndex;
+            T item = (T) items[slot];
+            items[slot] = null;
+            takeIndex = nextIndex(slot);
+            return new Taken<>(item, slot);
+        } finally {
+            mutex.unlock();
+            empty.release();
+        }
+    }
+
+    /**
+     * Called with {@code count} permits of {@code full} held. If the sink throws,
+     * the items it did not accept stay in the buffer.
+     */
+    @SuppressWarnings("unchecked")
+    private void extractAll(Collection<? super T> sink, int count) {
+        if (count == 0) {
+            return;
+        }
+        int taken = 0;
+        mutex.lock();
+        try {
+            for (; taken < count; taken++) {
+                sink.add((T) items[takeIndex]);
+                items[takeIndex] = null;
+                takeIndex = nextIndex(takeIndex);
+            }
+        } finally {
+            mutex.unlock();
+            empty.release(taken);
+            full.release(count - taken);
+        }
+    }
+
+    /**
+     * Waits for one permit, then takes whatever else is available right away, up to {@code max} in total.
+     */
+    private static int acquireUpTo(Semaphore semaphore, int max) throws InterruptedException {
+        semaphore.acquire();
+        int available = semaphore.drainPermits();
+        int extra = Math.min(available, max - 1);
+        semaphore.release(available - extra);
+        return 1 + extra;
+    }
+
+    private int nextIndex(int index) {
+        return (index + 1) % items.length;
+    }
+}
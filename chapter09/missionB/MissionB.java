@@ -1,9 +1,5 @@
 package chapter09.missionB;
 
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
 public class MissionB {
 
     /* Print format */
@@ -11,18 +7,22 @@ public class MissionB {
     private static final String FONT_GREEN = "\u001B[32m";
 
     private static final int BUFFER_SIZE = 5;
-    private static final String[] BUFFER = new String[BUFFER_SIZE];
-    private static final Semaphore empty = new Semaphore(BUFFER_SIZE);
-    private static final Semaphore full = new Semaphore(0);
-    private static final Lock mutex = new ReentrantLock();
 
+    /**
+     * Usage: {@code MissionB [semaphore|spin|yield|park]}. The default is the {@link BoundedBuffer}
+     * guarded by semaphores; the others pick the wait strategy of a lock-free {@link RingBuffer}.
+     */
     public static void main(String[] args) {
         int itemsPerProducer = 5;
+        String kind = args.length > 0 ? args[0] : "semaphore";
+        ProducerConsumerBuffer<String> buffer = kind.equals("semaphore")
+            ? new BoundedBuffer<>(BUFFER_SIZE)
+            : new RingBuffer<>(BUFFER_SIZE, RingBuffer.WaitStrategy.valueOf(kind.toUpperCase()));
 
         Thread[] threads = {
-            new Producer("SpongeBob", itemsPerProducer),
-            new Producer("Patrick", itemsPerProducer),
-            new Consumer("Squidward", 2 * itemsPerProducer)
+            new Producer("SpongeBob", buffer, itemsPerProducer),
+            new Producer("Patrick", buffer, itemsPerProducer),
+            new Consumer("Squidward", buffer, 2 * itemsPerProducer)
         };
 
         for(Thread thread : threads) {
@@ -34,35 +34,24 @@ public class MissionB {
 
         private static final long SLEEP_TIME_IN_MILLIS = 1000L;
 
-        private static int producerIdx = 0;
-
+        private final ProducerConsumerBuffer<String> buffer;
         private final int maximumItems;
         private int counter;
 
-        public Producer(String name, int maximumItems) {
+        public Producer(String name, ProducerConsumerBuffer<String> buffer, int maximumItems) {
             super(name);
+            this.buffer = buffer;
             this.maximumItems = maximumItems;
         }
 
-        private int nextIndex(int index) {
-            return (index + 1) % BUFFER_SIZE;
-        }
-
         @Override
         public void run() {
             while (this.counter < maximumItems) {
                 try {
-                    empty.acquire();
-                    mutex.lock();
-
                     this.counter++;
                     String data = String.format("%s-%d", getName(), this.counter);
-                    BUFFER[producerIdx] = data;
-                    System.out.printf(FONT_BLACK + "%s produced: '%s' into slot %d%n", getName(), data, producerIdx);
-                    producerIdx = this.nextIndex(producerIdx);
-
-                    mutex.unlock();
-                    full.release();
+                    int slot = buffer.put(data);
+                    System.out.printf(FONT_BLACK + "%s produced: '%s' into slot %d%n", getName(), data, slot);
 
                     Thread.sleep(SLEEP_TIME_IN_MILLIS);
                 } catch (InterruptedException e) {
@@ -77,12 +66,13 @@ public class MissionB {
 
         private static final long SLEEP_TIME_IN_MILLIS = 2000L;
 
-        private int idx = 0;
         private int counter = 0;
+        private final ProducerConsumerBuffer<String> buffer;
         private final int totalItems;
 
-        public Consumer(String name, int totalItems) {
+        public Consumer(String name, ProducerConsumerBuffer<String> buffer, int totalItems) {
             super(name);
+            this.buffer = buffer;
             this.totalItems = totalItems;
         }
 
@@ -90,17 +80,11 @@ public class MissionB {
         public void run() {
             while (counter < totalItems) {
                 try {
-                    full.acquire();
-                    mutex.lock();
-
-                    String item = BUFFER[idx];
-                    System.out.printf(FONT_GREEN + "%s consumed item: '%s' from slot %d%n", getName(), item, idx);
-                    idx = (idx + 1) % BUFFER_SIZE;
+                    ProducerConsumerBuffer.Taken<String> taken = buffer.takeFromSlot();
+                    System.out.printf(FONT_GREEN + "%s consumed item: '%s' from slot %d%n", getName(), taken.item(),
+                        taken.slot());
                     counter++;
 
-                    mutex.unlock();
-                    empty.release();
-
                     Thread.sleep(SLEEP_TIME_IN_MILLIS);
                 } catch (InterruptedException e) {
                     this.interrupt();
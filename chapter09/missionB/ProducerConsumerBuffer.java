@@ -0,0 +1,48 @@
+package chapter09.missionB;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded buffer that producers put items into and consumers take them out of, in order.
+ */
+public interface ProducerConsumerBuffer<T> {
+
+    /**
+     * An item together with the slot it was taken out of.
+     */
+    record Taken<T>(T item, int slot) {
+    }
+
+    /**
+     * Waits for a free slot and puts the item into it.
+     *
+     * @return the slot the item was put into
+     */
+    int put(T item) throws InterruptedException;
+
+    /**
+     * Waits for an item and takes it out of its slot.
+     */
+    T take() throws InterruptedException;
+
+    /**
+     * Like {@link #take()}, but also tells which slot the item was in.
+     */
+    Taken<T> takeFromSlot() throws InterruptedException;
+
+    /**
+     * Waits at most {@code timeout} for a free slot.
+     *
+     * @return false if the buffer stayed full, in which case the item was not put
+     */
+    boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Waits at most {@code timeout} for an item.
+     *
+     * @return the item, or null if the buffer stayed empty
+     */
+    T poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    int capacity();
+}
@@ -0,0 +1,261 @@
+package chapter09.missionB;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free bounded buffer for many producers and many consumers.
+ * <p>
+ * Producers claim positions from {@code tail} and consumers from {@code head}, with one compareAndSet each.
+ * Every slot carries a sequence number telling whose turn it is: it equals the position a producer may fill,
+ * then that position + 1 once the item is in, and the position a full lap later once a consumer has taken it.
+ * So neither side needs a lock or a semaphore, and a thread only ever waits for the one slot it has claimed.
+ * <p>
+ * The capacity is rounded up to a power of two so that positions map onto slots with a mask.
+ */
+public class RingBuffer<T> implements ProducerConsumerBuffer<T> {
+
+    /**
+     * What a thread does while the buffer is full (for producers) or empty (for consumers).
+     */
+    public enum WaitStrategy {
+        /**
+         * Busy-spins. The fastest to react, but every waiting thread keeps a core busy: with more threads
+         * than cores, the thread being waited for may not get a core until the spinner is preempted.
+         */
+        SPIN,
+        /** Spins briefly, then yields its core to other threads between attempts. */
+        YIELD,
+        /**
+         * Spins and yields briefly, then parks for growing intervals of up to a millisecond.
+         * Easy on the CPU, but slower to react.
+         */
+        PARK;
+
+        private static final int SPIN_ATTEMPTS = 100;
+        private static final int YIELD_ATTEMPTS = 100;
+        private static final long MIN_PARK_NANOS = 1_000L;
+        private static final int MAX_PARK_SHIFT = 10;
+
+        void idle(int attempt) {
+            if (this == SPIN || attempt < SPIN_ATTEMPTS) {
+                Thread.onSpinWait();
+            } else if (this == YIELD || attempt < SPIN_ATTEMPTS + YIELD_ATTEMPTS) {
+                Thread.yield();
+            } else {
+                int shift = Math.min(attempt - SPIN_ATTEMPTS - YIELD_ATTEMPTS, MAX_PARK_SHIFT);
+                LockSupport.parkNanos(MIN_PARK_NANOS << shift);
+            }
+        }
+    }
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final PaddedCursor tail = new PaddedCursor();
+    private final PaddedCursor head = new PaddedCursor();
+
+    public RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int slots = Integer.highestOneBit(capacity * 2 - 1);
+        this.items = new Object[slots];
+        this.sequences = new AtomicLongArray(slots);
+        for (int slot = 0; slot < slots; slot++) {
+            sequences.set(slot, slot);
+        }
+        this.mask = slots - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public int put(T item) throws InterruptedException {
+        int slot;
+        for (int attempt = 0; (slot = tryPut(item)) < 0; attempt++) {
+            checkInterrupted();
+            waitStrategy.idle(attempt);
+        }
+        return slot;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        T item;
+        for (int attempt = 0; (item = poll()) == null; attempt++) {
+            checkInterrupted();
+            waitStrategy.idle(attempt);
+        }
+        return item;
+    }
+
+    @Override
+    public Taken<T> takeFromSlot() throws InterruptedException {
+        Taken<T> taken;
+        for (int attempt = 0; (taken = tryTake()) == null; attempt++) {
+            checkInterrupted();
+            waitStrategy.idle(attempt);
+        }
+        return taken;
+    }
+
+    @Override
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryPut(item) >= 0) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; tryPut(item) < 0; attempt++) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt);
+        }
+        return true;
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; (item = poll()) == null; attempt++) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            waitStrategy.idle(attempt);
+        }
+        return item;
+    }
+
+    /**
+     * Puts the item if a slot is free, without waiting.
+     */
+    public boolean offer(T item) {
+        return tryPut(item) >= 0;
+    }
+
+    /**
+     * Takes an item if there is one, without waiting.
+     *
+     * @return the item, or null if the buffer is empty
+     */
+    public T poll() {
+        Taken<T> taken = tryTake();
+        return taken != null ? taken.item() : null;
+    }
+
+    @Override
+    public int capacity() {
+        return items.length;
+    }
+
+    /**
+     * @return the item and its slot, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    private Taken<T> tryTake() {
+        long position = head.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.getAcquire(slot) - (position + 1);
+            if (difference == 0) {
+                long witness = head.compareAndExchange(position, position + 1);
+                if (witness == position) {
+                    T item = (T) items[slot];
+                    items[slot] = null;
+                    sequences.setRelease(slot, position + items.length);
+                    return new Taken<>(item, slot);
+                }
+                position = witness;
+            } else if (difference < 0) {
+                // The producer of this position has not filled it yet
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return the slot the item was put into, or -1 if the buffer is full
+     */
+    private int tryPut(T item) {
+        if (item == null) {
+            throw new NullPointerException("Items must not be null");
+        }
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.getAcquire(slot) - position;
+            if (difference == 0) {
+                long witness = tail.compareAndExchange(position, position + 1);
+                if (witness == position) {
+                    items[slot] = item;
+                    sequences.setRelease(slot, position + 1);
+                    return slot;
+                }
+                position = witness;
+            } else if (difference < 0) {
+                // The consumer of the previous lap has not emptied this slot yet
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /*
+     * A position counter alone on its cache line. HotSpot lays out the fields of a superclass before those of
+     * its subclasses, so the value ends up between two blocks of 56 unused bytes, and producers updating tail
+     * do not invalidate the line consumers read head from.
+     */
+
+    @SuppressWarnings("unused")
+    private abstract static class LeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private abstract static class Cursor extends LeftPadding {
+        volatile long value;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class PaddedCursor extends Cursor {
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Cursor.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        long get() {
+            return value;
+        }
+
+        long compareAndExchange(long expected, long next) {
+            return (long) VALUE.compareAndExchange(this, expected, next);
+        }
+    }
+}
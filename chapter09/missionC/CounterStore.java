@@ -0,0 +1,15 @@
+package chapter09.missionC;
+
+/**
+ * The counter of the library in Mission C, together with the time it was last updated.
+ * Readers must always see both values from the same update.
+ */
+public interface CounterStore {
+
+    record Reading(int counter, long updatedAtNanos) {
+    }
+
+    Reading read();
+
+    void increment();
+}
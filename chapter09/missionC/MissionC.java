@@ -1,14 +1,21 @@
 package chapter09.missionC;
 
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 public class MissionC {
 
-    private static final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-
-    private static int counter = 0;
+    private static CounterStore store;
 
+    /**
+     * Usage: {@code MissionC [rw-lock|stamped|seqlock]}
+     */
     public static void main(String[] args) {
+        String type = args.length > 0 ? args[0] : "rw-lock";
+        store = switch (type) {
+            case "rw-lock" -> new ReadWriteLockStore();
+            case "stamped" -> new StampedLockStore();
+            case "seqlock" -> new SeqLockStore();
+            default -> throw new IllegalArgumentException("Unknown store: " + type);
+        };
+
         Thread[] threads = {
             new User(0),
             new User(1),
@@ -31,11 +38,7 @@ public class MissionC {
         @Override
         public void run() {
             while (true) {
-                rwLock.readLock().lock();
-
-                System.out.printf("%s reading: %d%n", getName(), counter);
-
-                rwLock.readLock().unlock();
+                System.out.printf("%s reading: %d%n", getName(), store.read().counter());
 
                 // Simulating some real action here
                 try {
@@ -53,13 +56,9 @@ public class MissionC {
         @Override
         public void run() {
             while (true) {
-                rwLock.writeLock().lock();
-
                 System.out.println("Librarian writing...");
-                counter += 1;
-                System.out.println("New value : " + counter);
-
-                rwLock.writeLock().unlock();
+                store.increment();
+                System.out.println("New value : " + store.read().counter());
 
                 // Simulating some real action here
                 try {
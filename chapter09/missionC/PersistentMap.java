@@ -0,0 +1,296 @@
+package chapter09.missionC;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map. {@link #put} and {@link #remove} return a new map that shares every part of the old one
+ * except the path to the changed entry, so a change costs a few small array copies however large the map is.
+ * <p>
+ * The map is a hash array mapped trie: every level consumes 5 bits of the hash and stores only the branches that
+ * exist, found through a 32-bit bitmap. Keys whose full hashes are equal end up together in a collision node.
+ * Keys and values must not be null.
+ */
+public final class PersistentMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the key, or null if the map does not contain it
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        return (V) root.get(key, hash(key), 0);
+    }
+
+    public PersistentMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        Change change = new Change();
+        Node newRoot = root.put(key, value, hash(key), 0, change);
+        return newRoot == root ? this : new PersistentMap<>(newRoot, change.added ? size + 1 : size);
+    }
+
+    public PersistentMap<K, V> remove(Object key) {
+        Node newRoot = root.remove(key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentMap<>(newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    private static int hash(Object key) {
+        int hashCode = key.hashCode();
+        return hashCode ^ hashCode >>> 16;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << (hash >>> shift & MASK);
+    }
+
+    private static final class Change {
+        boolean added;
+    }
+
+    private interface Node {
+
+        Object get(Object key, int hash, int shift);
+
+        /**
+         * @return this node if nothing changed
+         */
+        Node put(Object key, Object value, int hash, int shift, Change change);
+
+        /**
+         * @return this node if the key was not found, or null if the node is left empty
+         */
+        Node remove(Object key, int hash, int shift);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * Entries and branches as pairs in one array, in the order of their bits in the bitmap.
+     * A pair with a null key holds a child node in place of the value.
+     */
+    private static final class BitmapNode implements Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        public Object get(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = index(bit);
+            Object storedKey = array[index];
+            Object value = array[index + 1];
+            if (storedKey == null) {
+                return ((Node) value).get(key, hash, shift + BITS);
+            }
+            return key.equals(storedKey) ? value : null;
+        }
+
+        @Override
+        public Node put(Object key, Object value, int hash, int shift, Change change) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, index);
+                copy[index] = key;
+                copy[index + 1] = value;
+                System.arraycopy(array, index, copy, index + 2, array.length - index);
+                change.added = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+
+            Object storedKey = array[index];
+            Object storedValue = array[index + 1];
+            if (storedKey == null) {
+                Node child = ((Node) storedValue).put(key, value, hash, shift + BITS, change);
+                return child == storedValue ? this : with(index, null, child);
+            }
+            if (key.equals(storedKey)) {
+                return storedValue == value ? this : with(index, storedKey, value);
+            }
+
+            change.added = true;
+            Node child = pair(storedKey, storedValue, key, value, hash, shift + BITS);
+            return with(index, null, child);
+        }
+
+        @Override
+        public Node remove(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object storedKey = array[index];
+            Object storedValue = array[index + 1];
+
+            if (storedKey == null) {
+                Node child = ((Node) storedValue).remove(key, hash, shift + BITS);
+                if (child == storedValue) {
+                    return this;
+                }
+                return child == null ? without(bit, index) : with(index, null, child);
+            }
+            return key.equals(storedKey) ? without(bit, index) : this;
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+
+        private int index(int bit) {
+            return 2 * Integer.bitCount(bitmap & bit - 1);
+        }
+
+        private BitmapNode with(int index, Object key, Object value) {
+            Object[] copy = array.clone();
+            copy[index] = key;
+            copy[index + 1] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private BitmapNode without(int bit, int index) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new BitmapNode(bitmap ^ bit, copy);
+        }
+
+        private static Node pair(Object key1, Object value1, Object key2, Object value2, int hash2, int shift) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            Change ignored = new Change();
+            return EMPTY.put(key1, value1, hash1, shift, ignored).put(key2, value2, hash2, shift, ignored);
+        }
+    }
+
+    /**
+     * Entries whose keys have the same full hash, as key/value pairs searched one by one.
+     */
+    private static final class CollisionNode implements Node {
+
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        public Object get(Object key, int hash, int shift) {
+            int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        public Node put(Object key, Object value, int hash, int shift, Change change) {
+            if (hash != this.hash) {
+                // Another key that shares the hash bits so far: branch off where the hashes differ
+                Node branch = new BitmapNode(bit(this.hash, shift), new Object[]{null, this});
+                return branch.put(key, value, hash, shift, change);
+            }
+
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[index + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+
+            Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            change.added = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Node remove(Object key, int hash, int shift) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
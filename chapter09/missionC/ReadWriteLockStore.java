@@ -0,0 +1,35 @@
+package chapter09.missionC;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Every read takes the read lock, so even readers that never meet a writer update the shared lock state.
+ */
+public class ReadWriteLockStore implements CounterStore {
+
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    private int counter;
+    private long updatedAtNanos;
+
+    @Override
+    public Reading read() {
+        rwLock.readLock().lock();
+        try {
+            return new Reading(counter, updatedAtNanos);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void increment() {
+        rwLock.writeLock().lock();
+        try {
+            counter++;
+            updatedAtNanos = System.nanoTime();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package chapter09.missionC;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A sequence lock: the writer makes the sequence odd while it updates the values and even again afterwards.
+ * Readers never write anything; they read the values between two reads of the sequence and retry if it was odd
+ * or has changed. Only worth it for values small enough to copy in a few instructions.
+ */
+public class SeqLockStore implements CounterStore {
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(SeqLockStore.class, "sequence", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile int sequence;
+    private int counter;
+    private long updatedAtNanos;
+
+    @Override
+    public Reading read() {
+        while (true) {
+            int before = (int) SEQUENCE.getAcquire(this);
+            if ((before & 1) == 0) {
+                int counter = this.counter;
+                long updatedAtNanos = this.updatedAtNanos;
+                // Keep the reads of the values from moving below the second read of the sequence
+                VarHandle.loadLoadFence();
+                if (sequence == before) {
+                    return new Reading(counter, updatedAtNanos);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void increment() {
+        writeLock.lock();
+        try {
+            int before = sequence;
+            SEQUENCE.setOpaque(this, before + 1);
+            // Keep the writes of the values from moving above the odd sequence
+            VarHandle.storeStoreFence();
+            counter++;
+            updatedAtNanos = System.nanoTime();
+            sequence = before + 2;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package chapter09.missionC;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Readers read without locking and only check afterwards that no writer came in between.
+ * A reader that lost that race takes the read lock and reads again.
+ */
+public class StampedLockStore implements CounterStore {
+
+    private final StampedLock lock = new StampedLock();
+
+    private int counter;
+    private long updatedAtNanos;
+
+    @Override
+    public Reading read() {
+        long stamp = lock.tryOptimisticRead();
+        int counter = this.counter;
+        long updatedAtNanos = this.updatedAtNanos;
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                counter = this.counter;
+                updatedAtNanos = this.updatedAtNanos;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return new Reading(counter, updatedAtNanos);
+    }
+
+    @Override
+    public void increment() {
+        long stamp = lock.writeLock();
+        try {
+            counter++;
+            updatedAtNanos = System.nanoTime();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
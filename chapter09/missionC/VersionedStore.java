@@ -0,0 +1,171 @@
+package chapter09.missionC;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * A read-mostly map that readers never lock: the library of Mission C grown from one counter to a catalogue.
+ * <p>
+ * Every write publishes a new numbered {@link Version} holding a {@link PersistentMap}, which shares all unchanged
+ * entries with the version before. Readers just read the current version, and keep using it for as long as they
+ * need consistent answers across several keys, whatever writers do meanwhile. Writers take turns on a lock.
+ * <p>
+ * The last {@code historySize} versions can also be looked up by number, for readers that only kept the number.
+ */
+public class VersionedStore<K, V> {
+
+    public record Version<K, V>(long number, PersistentMap<K, V> map) {
+
+        public V get(K key) {
+            return map.get(key);
+        }
+    }
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicReferenceArray<Version<K, V>> history;
+
+    private volatile Version<K, V> current = new Version<>(0L, PersistentMap.empty());
+
+    public VersionedStore(int historySize) {
+        if (historySize <= 0) {
+            throw new IllegalArgumentException("History size must be positive: " + historySize);
+        }
+        history = new AtomicReferenceArray<>(historySize);
+        history.set(0, current);
+    }
+
+    /**
+     * The latest version. It never changes, so several reads from it are always consistent with each other.
+     */
+    public Version<K, V> current() {
+        return current;
+    }
+
+    public V get(K key) {
+        return current.get(key);
+    }
+
+    /**
+     * @return the version with that number, unless it is older than the history or not published yet
+     */
+    public Optional<Version<K, V>> version(long number) {
+        if (number < 0) {
+            return Optional.empty();
+        }
+        Version<K, V> version = history.get((int) (number % history.length()));
+        return version != null && version.number() == number ? Optional.of(version) : Optional.empty();
+    }
+
+    public Version<K, V> put(K key, V value) {
+        return update(map -> map.put(key, value));
+    }
+
+    public Version<K, V> remove(K key) {
+        return update(map -> map.remove(key));
+    }
+
+    /**
+     * Applies {@code change} to the current map and publishes the result as one new version, so that readers see
+     * either none or all of its changes. Nothing is published if the map is unchanged.
+     *
+     * @return the version that is current after the update
+     */
+    public Version<K, V> update(UnaryOperator<PersistentMap<K, V>> change) {
+        writeLock.lock();
+        try {
+            Version<K, V> previous = current;
+            PersistentMap<K, V> map = change.apply(previous.map());
+            if (map == previous.map()) {
+                return previous;
+            }
+
+            Version<K, V> next = new Version<>(previous.number() + 1, map);
+            history.set((int) (next.number() % history.length()), next);
+            current = next;
+            return next;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Usage: {@code VersionedStore [books] [readers]}. A librarian keeps moving copies of books between two
+     * branches while readers check that the copies of a book always add up, and time their reads.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int copies = 10;
+
+        VersionedStore<String, Integer> catalogue = new VersionedStore<>(16);
+        catalogue.update(map -> {
+            for (int book = 0; book < books; book++) {
+                map = map.put("north/" + book, copies).put("south/" + book, 0);
+            }
+            return map;
+        });
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong inconsistentReads = new AtomicLong();
+        long[][] latencies = new long[readers][];
+        Thread[] threads = new Thread[readers];
+        for (int i = 0; i < readers; i++) {
+            int reader = i;
+            threads[i] = new Thread(() -> {
+                long[] samples = new long[1 << 20];
+                int count = 0;
+                while (running.get()) {
+                    int book = (int) (Math.random() * books);
+                    String north = "north/" + book;
+                    String south = "south/" + book;
+                    long start = System.nanoTime();
+                    Version<String, Integer> version = catalogue.current();
+                    int total = version.get(north) + version.get(south);
+                    samples[count++ & samples.length - 1] = System.nanoTime() - start;
+                    if (total != copies) {
+                        inconsistentReads.incrementAndGet();
+                    }
+                }
+                latencies[reader] = Arrays.copyOf(samples, Math.min(count, samples.length));
+            }, "Reader-" + i);
+            threads[i].start();
+        }
+
+        // The librarian moves one copy at a time, in both branches within the same version
+        long startTimeNanos = System.nanoTime();
+        long moves = 0;
+        while (System.nanoTime() - startTimeNanos < TimeUnit.SECONDS.toNanos(2)) {
+            String book = String.valueOf((int) (Math.random() * books));
+            catalogue.update(map -> {
+                int north = map.get("north/" + book);
+                int south = map.get("south/" + book);
+                return north > 0
+                    ? map.put("north/" + book, north - 1).put("south/" + book, south + 1)
+                    : map.put("north/" + book, copies).put("south/" + book, 0);
+            });
+            moves++;
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%d versions published while %d readers read %d times, %d inconsistent reads%n",
+            moves, readers, all.length, inconsistentReads.get());
+        System.out.printf("Read latency: p50 %d ns, p99 %d ns, p99.9 %d ns%n",
+            all[all.length / 2], all[(int) (all.length * 0.99)], all[(int) (all.length * 0.999)]);
+
+        Version<String, Integer> pinned = catalogue.current();
+        catalogue.put("north/0", 0);
+        System.out.printf("Version %d still has %d copies of book 0 up north, version %d has %d%n",
+            pinned.number(), pinned.get("north/0"),
+            catalogue.current().number(), catalogue.version(catalogue.current().number()).orElseThrow().get("north/0"));
+    }
+}
@@ -3,9 +3,18 @@ package chapter10.missionA;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.Socket;
 
-public class Handler extends Thread {
+/**
+ * Serves one connection with blocking reads and writes.
+ * <p>
+ * It runs on either a platform or a virtual thread. No {@code synchronized} is used on the way, so a
+ * virtual thread blocked in {@code readLine} or {@code write} unmounts instead of pinning its carrier.
+ */
+public class Handler implements Runnable {
+
+    private static final byte[] BUSY_MESSAGE = "Server is busy, please try again later\n".getBytes();
 
     private final Socket conn;
 
@@ -19,7 +28,8 @@ public class Handler extends Thread {
 
         try (
             Socket socket = conn;
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream()
         ) {
             String data;
 
@@ -34,7 +44,7 @@ public class Handler extends Thread {
                 }
 
                 System.out.println("Sending message to " + conn.getRemoteSocketAddress());
-                conn.getOutputStream().write(responseMessage.getBytes());
+                out.write(responseMessage.getBytes());
             }
         } catch (IOException e) {
             System.err.println("Handler: " + e.getMessage());
@@ -42,4 +52,17 @@ public class Handler extends Thread {
 
         System.out.println("Connection with " + conn.getRemoteSocketAddress() + " has been closed");
     }
+
+    /**
+     * Turns the client away instead of serving it.
+     */
+    public void refuse() {
+        try (Socket socket = conn) {
+            socket.getOutputStream().write(BUSY_MESSAGE);
+        } catch (IOException e) {
+            System.err.println("Handler: " + e.getMessage());
+        }
+
+        System.out.println("Connection with " + conn.getRemoteSocketAddress() + " has been refused");
+    }
 }
@@ -2,8 +2,31 @@ package chapter10.missionA;
 
 public class Main {
 
+    private static final int DEFAULT_POOL_SIZE = 200;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /**
+     * Usage: {@code Main [platform-threads|virtual-threads]}
+     * or {@code Main bounded-pool [poolSize] [queueCapacity] [refuse|pause-accepting|caller-runs]}
+     */
     public static void main(String[] args) {
-        Server server = new Server();
+        Server.Mode mode = args.length > 0 ? enumArg(Server.Mode.class, args[0]) : Server.Mode.PLATFORM_THREADS;
+
+        Server server;
+        if (mode == Server.Mode.BOUNDED_POOL) {
+            int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_POOL_SIZE;
+            int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_QUEUE_CAPACITY;
+            Server.RejectionPolicy rejectionPolicy = args.length > 3
+                ? enumArg(Server.RejectionPolicy.class, args[3])
+                : Server.RejectionPolicy.REFUSE;
+            server = new Server(poolSize, queueCapacity, rejectionPolicy);
+        } else {
+            server = new Server(mode);
+        }
         server.start();
     }
+
+    private static <E extends Enum<E>> E enumArg(Class<E> type, String arg) {
+        return Enum.valueOf(type, arg.toUpperCase().replace('-', '_'));
+    }
 }
@@ -3,18 +3,77 @@ package chapter10.missionA;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Server {
 
     private static final int PORT = 12345;
+    private static final int BACKLOG = 4096;
+    private static final long STATS_INTERVAL_SECONDS = 5L;
+
+    public enum Mode {
+        PLATFORM_THREADS,
+        VIRTUAL_THREADS,
+        BOUNDED_POOL
+    }
+
+    /**
+     * What a {@link Mode#BOUNDED_POOL} server does with a connection when every worker is busy and the queue is full.
+     */
+    public enum RejectionPolicy {
+        /** Tell the client the server is busy and close the connection. */
+        REFUSE,
+        /** Stop accepting until the queue has room again; new clients wait in the accept backlog. */
+        PAUSE_ACCEPTING,
+        /** Serve the connection on the accepting thread, which stops accepting meanwhile. */
+        CALLER_RUNS
+    }
 
     private final ServerSocket serverSocket;
+    private final Mode mode;
+    private final ExecutorService connections;
+    private final AtomicLong rejectedConnections = new AtomicLong();
 
     public Server() {
+        this(Mode.PLATFORM_THREADS);
+    }
+
+    public Server(Mode mode) {
+        this(mode, switch (mode) {
+            case PLATFORM_THREADS -> Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("Handler-", 0).factory());
+            case VIRTUAL_THREADS -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Handler-", 0).factory());
+            case BOUNDED_POOL -> throw new IllegalArgumentException("A bounded pool needs a size, a queue capacity and a rejection policy");
+        });
+    }
+
+    public Server(int poolSize, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this(Mode.BOUNDED_POOL, new ThreadPoolExecutor(
+            poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().name("Handler-", 0).factory()
+        ));
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) connections;
+        pool.setRejectedExecutionHandler(rejectionHandler(rejectionPolicy));
+        System.out.printf("Bounded pool: %d workers, queue capacity %d, %s when full%n",
+            poolSize, queueCapacity, rejectionPolicy);
+    }
+
+    private Server(Mode mode, ExecutorService connections) {
         System.out.println("Starting up at: " + PORT);
 
+        this.mode = mode;
+        this.connections = connections;
+
         try {
-            serverSocket = new ServerSocket(PORT);
+            serverSocket = new ServerSocket(PORT, BACKLOG);
         } catch (IOException e) {
             System.err.println("Server stopped.");
             throw new RuntimeException(e);
@@ -22,17 +81,73 @@ public class Server {
     }
 
     public void start() {
-        System.out.println("Server listening for incoming connections");
+        System.out.println("Server listening for incoming connections (" + mode + ")");
+
+        if (mode == Mode.BOUNDED_POOL) {
+            startStatsReporter();
+        }
 
         while (true) {
             try {
                 Socket conn = serverSocket.accept();
                 System.out.println("Client connection request from " + conn.getRemoteSocketAddress());
-                Thread thread = new Handler(conn);
-                thread.start();
+                connections.execute(new Handler(conn));
             } catch (IOException e) {
                 System.err.println("Server: " + e.getMessage());
             }
         }
     }
+
+    /**
+     * Number of accepted connections waiting for a worker, or 0 when connections get their own thread.
+     */
+    public int queueDepth() {
+        return connections instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+    }
+
+    /**
+     * Number of connections that found the bounded pool and its queue full.
+     */
+    public long rejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    private RejectedExecutionHandler rejectionHandler(RejectionPolicy rejectionPolicy) {
+        return (task, pool) -> {
+            Handler handler = (Handler) task;
+            long rejected = rejectedConnections.incrementAndGet();
+            System.err.printf("Server: pool is full (queue depth %d, %d rejected so far), %s%n",
+                pool.getQueue().size(), rejected, rejectionPolicy);
+
+            if (pool.isShutdown()) {
+                handler.refuse();
+                return;
+            }
+
+            switch (rejectionPolicy) {
+                case REFUSE -> handler.refuse();
+                case PAUSE_ACCEPTING -> {
+                    try {
+                        pool.getQueue().put(handler);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        handler.refuse();
+                    }
+                }
+                case CALLER_RUNS -> handler.run();
+            }
+        };
+    }
+
+    private void startStatsReporter() {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("Stats").daemon().factory()
+        );
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) connections;
+
+        reporter.scheduleAtFixedRate(() -> System.out.printf(
+            "Server stats: %d/%d workers busy, queue depth %d, %d rejected%n",
+            pool.getActiveCount(), pool.getMaximumPoolSize(), queueDepth(), rejectedConnections()
+        ), STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
 }
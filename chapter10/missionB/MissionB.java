@@ -1,41 +1,87 @@
 package chapter10.missionB;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class MissionB {
 
-    public static void main(String[] args) {
-        Server server = new Server();
+    /**
+     * Usage: {@code MissionB [polling|selector]} to run the server,
+     * or {@code MissionB compare [connections] [requests]} to compare the latency of both modes.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("compare")) {
+            int connections = args.length > 1 ? Integer.parseInt(args[1]) : LatencyComparison.CONNECTIONS;
+            int requests = args.length > 2 ? Integer.parseInt(args[2]) : LatencyComparison.REQUESTS;
+            new LatencyComparison(connections, requests).run();
+            return;
+        }
+
+        Mode mode = args.length > 0 ? Mode.valueOf(args[0].toUpperCase()) : Mode.POLLING;
+        Server server = new Server(mode);
         server.start();
     }
 
+    private enum Mode {
+        /** Wait up to 200 ms for a new connection, then ask every client whether it has sent anything. */
+        POLLING,
+        /** Let a {@link Selector} report the sockets that are ready and touch only those. */
+        SELECTOR
+    }
+
+    private static String respond(String message) {
+        try {
+            int order = Integer.parseInt(message);
+            return "Thank you for ordering " + order + " pizzas!\n";
+        } catch (NumberFormatException e) {
+            return "Wrong number of pizzas, please try again\n";
+        }
+    }
+
     private static class Server {
 
         private static final int BUFFER_SIZE = 1024;
         private static final String HOST = "127.0.0.1";
         private static final int PORT_NUM = 12345;
+        private static final int BACKLOG = 1024;
+
+        private final Mode mode;
+        private volatile boolean running = true;
 
         private ServerSocket serverSocket;
         private final Set<SocketHandler> clients = new HashSet<>();
 
+        // Written by the server thread, woken up through it by stop() on another thread
+        private volatile Selector selector;
+        private ServerSocketChannel serverChannel;
+
+        public Server(Mode mode) {
+            this.mode = mode;
+        }
+
         public void start() {
             try {
-                serverSocket = new ServerSocket();
-                serverSocket.bind(new InetSocketAddress(HOST, PORT_NUM));
-                serverSocket.setSoTimeout(200);
-                System.out.println("Server listening for incoming connections");
-
-                while (true) {
-                    accept();
-                    serveAllClients();
+                switch (mode) {
+                    case POLLING -> poll();
+                    case SELECTOR -> select();
                 }
             } catch (IOException e) {
                 System.err.println("Server error: " + e.getMessage());
@@ -44,6 +90,59 @@ public class MissionB {
             }
         }
 
+        public void stop() {
+            running = false;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        private void poll() throws IOException {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(HOST, PORT_NUM), BACKLOG);
+            serverSocket.setSoTimeout(200);
+            System.out.println("Server listening for incoming connections");
+
+            while (running) {
+                accept();
+                serveAllClients();
+            }
+        }
+
+        private void select() throws IOException {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(HOST, PORT_NUM), BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server listening for incoming connections");
+
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (key.isAcceptable()) {
+                        acceptChannel();
+                        continue;
+                    }
+
+                    ChannelHandler client = (ChannelHandler) key.attachment();
+                    boolean open = !key.isWritable() || client.flush(key);
+                    if (open && key.isReadable()) {
+                        open = client.handle(key);
+                    }
+                    if (!open) {
+                        key.cancel();
+                        client.close();
+                    }
+                }
+            }
+        }
+
         private void closeServer() {
             clients.forEach(SocketHandler::close);
             clients.clear();
@@ -52,6 +151,17 @@ public class MissionB {
                 if (serverSocket != null && !serverSocket.isClosed()) {
                     serverSocket.close();
                 }
+                if (selector != null) {
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.attachment() instanceof ChannelHandler client) {
+                            client.close();
+                        }
+                    }
+                    selector.close();
+                }
+                if (serverChannel != null) {
+                    serverChannel.close();
+                }
             } catch (IOException e) {
                 System.err.println("Server error with closing: " + e.getMessage());
             }
@@ -82,6 +192,19 @@ public class MissionB {
             }
         }
 
+        private void acceptChannel() {
+            try {
+                SocketChannel client;
+                while ((client = serverChannel.accept()) != null) {
+                    client.configureBlocking(false);
+                    client.register(selector, SelectionKey.OP_READ, new ChannelHandler(client));
+                    System.out.println("Connected to " + client.getRemoteAddress());
+                }
+            } catch (IOException e) {
+                System.err.println("accept: " + e.getMessage());
+            }
+        }
+
         private static class SocketHandler {
 
             private final Socket socket;
@@ -104,13 +227,7 @@ public class MissionB {
                         }
 
                         String message = new String(buffer, 0, bytesRead).trim();
-                        String response;
-                        try {
-                            int order = Integer.parseInt(message);
-                            response = "Thank you for ordering " + order + " pizzas!\n";
-                        } catch (NumberFormatException e) {
-                            response = "Wrong number of pizzas, please try again\n";
-                        }
+                        String response = respond(message);
 
                         System.out.println("Sending message to " + socket.getRemoteSocketAddress());
                         socket.getOutputStream().write(response.getBytes());
@@ -133,5 +250,183 @@ public class MissionB {
                 }
             }
         }
+
+        /**
+         * The {@link SocketHandler} counterpart for {@link Mode#SELECTOR}: it is only called once the selector
+         * has reported the channel readable, so the read never comes back empty-handed. A response the socket
+         * buffer cannot take at once waits for {@link SelectionKey#OP_WRITE}, and the client's next orders wait
+         * until it is sent.
+         */
+        private static class ChannelHandler {
+
+            private final SocketChannel channel;
+            private final ByteBuffer buffer;
+            private ByteBuffer pending;
+
+            public ChannelHandler(SocketChannel channel) {
+                this.channel = channel;
+                buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+
+            public boolean handle(SelectionKey key) {
+                try {
+                    buffer.clear();
+                    int bytesRead = channel.read(buffer);
+
+                    if (bytesRead == -1) {
+                        return false;
+                    }
+
+                    String message = new String(buffer.array(), 0, bytesRead).trim();
+                    pending = ByteBuffer.wrap(respond(message).getBytes());
+
+                    System.out.println("Sending message to " + channel.getRemoteAddress());
+                    return flush(key);
+                } catch (IOException e) {
+                    System.err.println("Socket error: " + e.getMessage());
+                    return false;
+                }
+            }
+
+            /**
+             * Writes what the socket buffer takes of the pending response, and waits for the channel to become
+             * writable, rather than readable, until all of it is sent.
+             */
+            public boolean flush(SelectionKey key) {
+                try {
+                    if (pending != null) {
+                        channel.write(pending);
+                        if (!pending.hasRemaining()) {
+                            pending = null;
+                        }
+                    }
+                    key.interestOps(pending == null ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("Socket error: " + e.getMessage());
+                    return false;
+                }
+            }
+
+            public void close() {
+                try {
+                    if (channel.isOpen()) {
+                        System.out.println("Closing " + channel.getRemoteAddress());
+                        channel.close();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error with closing client connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens many idle connections against each mode, then sends orders one at a time over them
+     * and measures how long each reply takes. Server output is muted while measuring.
+     */
+    private static class LatencyComparison {
+
+        private static final int CONNECTIONS = 1000;
+        private static final int REQUESTS = 200;
+
+        private final int connections;
+        private final int requests;
+
+        public LatencyComparison(int connections, int requests) {
+            if (connections <= 0 || requests <= 0) {
+                throw new IllegalArgumentException(
+                    "Connections and requests must be positive: " + connections + ", " + requests);
+            }
+            this.connections = connections;
+            this.requests = requests;
+        }
+
+        public void run() throws Exception {
+            PrintStream console = System.out;
+            console.printf("Round-trip latency over %d connections, %d sequential orders%n", connections, requests);
+
+            for (Mode mode : Mode.values()) {
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                long[] latencies;
+                try {
+                    latencies = measure(mode);
+                } finally {
+                    System.setOut(console);
+                }
+                report(mode, latencies);
+            }
+        }
+
+        private long[] measure(Mode mode) throws Exception {
+            Server server = new Server(mode);
+            Thread serverThread = new Thread(server::start, "Server-" + mode);
+            serverThread.start();
+
+            Socket[] sockets = new Socket[connections];
+            BufferedReader[] readers = new BufferedReader[connections];
+            try {
+                for (int i = 0; i < connections; i++) {
+                    sockets[i] = connect();
+                    readers[i] = new BufferedReader(new InputStreamReader(sockets[i].getInputStream()));
+                }
+
+                // Make sure every connection has been accepted before measuring
+                for (Socket socket : sockets) {
+                    socket.getOutputStream().write("0\n".getBytes());
+                }
+                for (BufferedReader reader : readers) {
+                    reader.readLine();
+                }
+
+                long[] latencies = new long[requests];
+                for (int i = 0; i < requests; i++) {
+                    int client = i * 7919 % connections;
+                    long start = System.nanoTime();
+                    sockets[client].getOutputStream().write("1\n".getBytes());
+                    readers[client].readLine();
+                    latencies[i] = System.nanoTime() - start;
+                }
+                return latencies;
+            } finally {
+                for (Socket socket : sockets) {
+                    if (socket != null) {
+                        socket.close();
+                    }
+                }
+                server.stop();
+                serverThread.join();
+            }
+        }
+
+        private static Socket connect() throws InterruptedException {
+            while (true) {
+                try {
+                    return new Socket(Server.HOST, Server.PORT_NUM);
+                } catch (IOException e) {
+                    // The server thread may not be listening yet
+                    Thread.sleep(10);
+                }
+            }
+        }
+
+        private static void report(Mode mode, long[] latencies) {
+            Arrays.sort(latencies);
+            double mean = Arrays.stream(latencies).average().orElse(0);
+            System.out.printf("%-8s mean %8.3f ms, p50 %8.3f ms, p99 %8.3f ms, max %8.3f ms%n", mode,
+                mean / TimeUnit.MILLISECONDS.toNanos(1),
+                millis(percentile(latencies, 50)),
+                millis(percentile(latencies, 99)),
+                millis(latencies[latencies.length - 1]));
+        }
+
+        private static long percentile(long[] sorted, int percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)];
+        }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
     }
 }
@@ -0,0 +1,93 @@
+package chapter11;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of fixed-size direct {@link ByteBuffer}s.
+ * <p>
+ * At most {@code maxPooled} released buffers are kept for reuse; anything beyond that is left to the
+ * garbage collector. Every acquired buffer has to be released exactly once, and {@link #close()}
+ * reports the buffers that never came back.
+ */
+public class BufferPool implements AutoCloseable {
+
+    private final String name;
+    private final int bufferSize;
+    private final ByteBuffer[] free;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int freeCount;
+    private int outstanding;
+
+    public BufferPool(String name, int bufferSize, int maxPooled) {
+        if (bufferSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("Buffer size and pool size must be positive");
+        }
+        this.name = name;
+        this.bufferSize = bufferSize;
+        this.free = new ByteBuffer[maxPooled];
+    }
+
+    public ByteBuffer acquire() {
+        lock.lock();
+        try {
+            outstanding++;
+            if (freeCount > 0) {
+                ByteBuffer buffer = free[--freeCount];
+                free[freeCount] = null;
+                return buffer;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+            throw new IllegalArgumentException("Buffer does not belong to pool " + name);
+        }
+        buffer.clear();
+
+        lock.lock();
+        try {
+            if (outstanding == 0) {
+                throw new IllegalStateException("More buffers released than acquired from pool " + name);
+            }
+            outstanding--;
+            if (freeCount < free.length) {
+                free[freeCount++] = buffer;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int outstanding() {
+        lock.lock();
+        try {
+            return outstanding;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        int leaked = outstanding();
+        if (leaked > 0) {
+            System.err.printf("%s: %d buffer(s) were never released%n", name, leaked);
+        }
+
+        lock.lock();
+        try {
+            while (freeCount > 0) {
+                free[--freeCount] = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
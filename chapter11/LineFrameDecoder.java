@@ -0,0 +1,90 @@
+package chapter11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a byte stream into newline-terminated frames.
+ * <p>
+ * One decoder belongs to one connection. A frame that is split across reads is kept in an accumulator
+ * until its newline arrives; complete frames are handed to the {@link FrameHandler} in place, without copying.
+ */
+public class LineFrameDecoder {
+
+    private static final byte NEW_LINE = '\n';
+
+    @FunctionalInterface
+    public interface FrameHandler {
+
+        /**
+         * Called for every complete frame, found between the absolute indices {@code from} (inclusive)
+         * and {@code to} (exclusive) of {@code buffer}. The newline is not part of the frame.
+         * The bytes are only valid during the call.
+         */
+        void onFrame(ByteBuffer buffer, int from, int to);
+    }
+
+    private final int maxFrameLength;
+
+    // Allocated on the first partial frame, so that idle connections don't carry it
+    private ByteBuffer partial;
+
+    public LineFrameDecoder(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("Max frame length must be positive: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Consumes every remaining byte of {@code in}, which must be ready for reading.
+     *
+     * @throws IOException if a frame grows beyond the maximum frame length
+     */
+    public void decode(ByteBuffer in, FrameHandler handler) throws IOException {
+        while (in.hasRemaining()) {
+            int start = in.position();
+            int newLine = indexOfNewLine(in, start, in.limit());
+
+            if (newLine < 0) {
+                accumulate(in, start, in.limit());
+                in.position(in.limit());
+                return;
+            }
+
+            if (partial != null && partial.position() > 0) {
+                accumulate(in, start, newLine);
+                handler.onFrame(partial, 0, partial.position());
+                partial.clear();
+            } else {
+                checkLength(newLine - start);
+                handler.onFrame(in, start, newLine);
+            }
+            in.position(newLine + 1);
+        }
+    }
+
+    private void accumulate(ByteBuffer in, int from, int to) throws IOException {
+        if (partial == null) {
+            partial = ByteBuffer.allocate(maxFrameLength);
+        }
+        checkLength(partial.position() + to - from);
+        partial.put(partial.position(), in, from, to - from);
+        partial.position(partial.position() + to - from);
+    }
+
+    private void checkLength(int length) throws IOException {
+        if (length > maxFrameLength) {
+            throw new IOException("Frame exceeds " + maxFrameLength + " bytes");
+        }
+    }
+
+    private static int indexOfNewLine(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == NEW_LINE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,5 +1,6 @@
 package chapter11;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -7,33 +8,84 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MissionA {
 
+    private static final int NUM_PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Usage: {@code MissionA [workers] [round-robin|least-loaded]}
+     * <p>
+     * With 0 workers the acceptor selector also serves every connection (single reactor).
+     * Otherwise accepted channels are handed over to {@code workers} selector threads.
+     * Run with {@code -Dpizza.logResponses=true} to log every response that is sent.
+     */
     public static void main(String[] args) {
-        ReactorServer server = new ReactorServer();
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : NUM_PROCESSORS;
+        Balancing balancing = args.length > 1 ? Balancing.of(args[1]) : Balancing.ROUND_ROBIN;
+
+        ReactorServer server = new ReactorServer(workers, balancing);
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
         server.start();
     }
 
+    private enum Balancing {
+        ROUND_ROBIN,
+        LEAST_LOADED;
+
+        static Balancing of(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
     private static class ReactorServer {
 
         private static final String ADDRESS = "127.0.0.1";
         private static final int PORT = 12345;
         private static final int BUFFER_SIZE = 1024;
+        private static final int MAX_POOLED_BUFFERS = 256;
+        private static final int MAX_FRAME_LENGTH = BUFFER_SIZE;
+        private static final int MAX_OUTBOUND_BUFFERS = 64;
+        // Logging every response allocates and serializes on the write path, so it is only done on request
+        private static final boolean LOG_RESPONSES = Boolean.getBoolean("pizza.logResponses");
+
+        private static final byte[] ORDER_PREFIX = "Thank you for ordering ".getBytes();
+        private static final byte[] ORDER_SUFFIX = " pizzas!\n".getBytes();
+        private static final byte[] WRONG_ORDER = "Wrong number of pizzas, please try again!\n".getBytes();
+        private static final int MAX_RESPONSE_LENGTH =
+            Math.max(ORDER_PREFIX.length + 11 + ORDER_SUFFIX.length, WRONG_ORDER.length);
 
-        private final Selector selector;
         private final ServerSocketChannel serverChannel;
+        private final EventLoop acceptor;
+        private final EventLoop[] workers;
+        private final Balancing balancing;
+
+        private volatile boolean running = true;
+        private int nextWorker;
+
+        public ReactorServer(int workerCount, Balancing balancing) {
+            if (workerCount < 0) {
+                throw new IllegalArgumentException("Worker count must not be negative: " + workerCount);
+            }
+            this.balancing = balancing;
 
-        public ReactorServer() {
             try {
-                selector = Selector.open();
+                acceptor = new EventLoop("Acceptor");
+                workers = new EventLoop[workerCount];
+                for (int i = 0; i < workerCount; i++) {
+                    workers[i] = new EventLoop("Worker-" + i);
+                }
 
                 serverChannel = ServerSocketChannel.open();
                 serverChannel.bind(new InetSocketAddress(ADDRESS, PORT));
                 serverChannel.configureBlocking(false);
-                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                serverChannel.register(acceptor.selector, SelectionKey.OP_ACCEPT);
 
                 System.out.println("Starting up at: " + ADDRESS + ":" + PORT);
             } catch (IOException e) {
@@ -43,97 +95,265 @@ public class MissionA {
         }
 
         public void start() {
-            System.out.println("Server listening for incoming connections");
+            System.out.printf("Server listening for incoming connections (%d workers, %s)%n",
+                workers.length, balancing);
+
+            for (EventLoop worker : workers) {
+                new Thread(worker, worker.name).start();
+            }
+            acceptor.run();
+        }
+
+        private void handleAccept(SelectionKey key) throws IOException {
+            ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+            SocketChannel clientChannel = serverChannel.accept();
+            if (clientChannel == null) {
+                return;
+            }
+            clientChannel.configureBlocking(false);
+
+            System.out.println("Connected to " + clientChannel.getRemoteAddress());
+
+            nextEventLoop().register(clientChannel);
+        }
 
+        private EventLoop nextEventLoop() {
+            if (workers.length == 0) {
+                return acceptor;
+            }
+
+            int start = nextWorker;
+            nextWorker = (nextWorker + 1) % workers.length;
+            if (balancing == Balancing.ROUND_ROBIN) {
+                return workers[start];
+            }
+
+            // Scan from the round-robin position so that ties are still spread evenly
+            EventLoop leastLoaded = workers[start];
+            for (int i = 1; i < workers.length; i++) {
+                EventLoop candidate = workers[(start + i) % workers.length];
+                if (candidate.connectionCount.get() < leastLoaded.connectionCount.get()) {
+                    leastLoaded = candidate;
+                }
+            }
+            return leastLoaded;
+        }
+
+        public void stop() {
+            running = false;
             try {
-                while (true) {
-                    selector.select();
+                serverChannel.close();
+            } catch (IOException e) {
+                System.err.println("Error stopping server: " + e.getMessage());
+            }
+            acceptor.selector.wakeup();
+            for (EventLoop worker : workers) {
+                worker.selector.wakeup();
+            }
+            System.out.println("\nServer stopped.");
+        }
 
-                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        /**
+         * A selector and the thread running it. Channels handed over by the acceptor are queued
+         * and registered by the loop itself, since {@link SocketChannel#register} blocks while
+         * another thread is inside {@link Selector#select()}.
+         */
+        private class EventLoop implements Runnable {
 
-                    while (iterator.hasNext()) {
-                        SelectionKey key = iterator.next();
-                        iterator.remove();
-                        try {
-                            if (key.isAcceptable()) {
-                                handleAccept(key);
-                            }
-                            if (key.isWritable()) {
-                                handleWrite(key);
-                            }
-                            if (key.isReadable()) {
-                                handleRead(key);
-                            }
-                        } catch (IOException e) {
-                            key.cancel();
+            private final String name;
+            private final Selector selector;
+            private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+            private final AtomicBoolean wakeupPending = new AtomicBoolean();
+            private final AtomicInteger connectionCount = new AtomicInteger();
+            private final BufferPool bufferPool;
+
+            EventLoop(String name) throws IOException {
+                this.name = name;
+                this.selector = Selector.open();
+                this.bufferPool = new BufferPool(name + "-buffers", BUFFER_SIZE, MAX_POOLED_BUFFERS);
+            }
+
+            void register(SocketChannel clientChannel) {
+                registrations.add(clientChannel);
+                connectionCount.incrementAndGet();
+
+                // Coalesce wakeups: one is enough until the loop drains the queue again
+                if (wakeupPending.compareAndSet(false, true)) {
+                    selector.wakeup();
+                }
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (running) {
+                        selector.select();
+                        wakeupPending.set(false);
+                        registerPending();
+
+                        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+
+                        while (iterator.hasNext()) {
+                            SelectionKey key = iterator.next();
+                            iterator.remove();
                             try {
-                                key.channel().close();
-                            } catch (IOException ex) {
-                                System.err.println("Error closing channel: " + ex.getMessage());
+                                if (key.isAcceptable()) {
+                                    handleAccept(key);
+                                }
+                                if (key.isWritable()) {
+                                    handleWrite(key);
+                                }
+                                if (key.isReadable()) {
+                                    handleRead(key);
+                                }
+                            } catch (IOException e) {
+                                close(key);
                             }
                         }
                     }
+                } catch (IOException e) {
+                    System.err.println(name + " error: " + e.getMessage());
+                } finally {
+                    closeAll();
                 }
-            } catch (IOException e) {
-                System.err.println("Server error: " + e.getMessage());
             }
-        }
 
-        private void handleAccept(SelectionKey key) throws IOException {
-            ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-            SocketChannel clientChannel = serverChannel.accept();
-            clientChannel.configureBlocking(false);
+            private void registerPending() {
+                SocketChannel clientChannel;
+                while ((clientChannel = registrations.poll()) != null) {
+                    try {
+                        clientChannel.register(selector, SelectionKey.OP_READ, new Connection());
+                    } catch (IOException e) {
+                        System.err.println("Error registering channel: " + e.getMessage());
+                        connectionCount.decrementAndGet();
+                        closeQuietly(clientChannel);
+                    }
+                }
+            }
 
-            System.out.println("Connected to " + clientChannel.getRemoteAddress());
+            private void handleRead(SelectionKey key) throws IOException {
+                SocketChannel client = (SocketChannel) key.channel();
+                Connection connection = (Connection) key.attachment();
+                ByteBuffer buffer = bufferPool.acquire();
 
-            clientChannel.register(selector, SelectionKey.OP_READ);
-        }
+                try {
+                    int bytesRead = client.read(buffer);
+                    if (bytesRead == -1) {
+                        System.out.println("Connection closed by " + client.getRemoteAddress());
+                        close(key);
+                        return;
+                    }
+
+                    buffer.flip();
+                    connection.decoder.decode(buffer, connection);
+                } finally {
+                    bufferPool.release(buffer);
+                }
+
+                // Most responses fit into the socket buffer right away, so try before waiting for OP_WRITE
+                flush(key, connection);
+            }
+
+            private void handleWrite(SelectionKey key) throws IOException {
+                flush(key, (Connection) key.attachment());
+            }
+
+            private void flush(SelectionKey key, Connection connection) throws IOException {
+                SocketChannel client = (SocketChannel) key.channel();
+
+                if (LOG_RESPONSES && !connection.outbound.isEmpty()) {
+                    System.out.println("Sending message to " + client.getRemoteAddress());
+                }
 
-        private void handleRead(SelectionKey key) throws IOException {
-            SocketChannel client = (SocketChannel) key.channel();
-            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                ByteBuffer head;
+                while ((head = connection.outbound.peekFirst()) != null) {
+                    head.flip();
+                    client.write(head);
 
-            int bytesRead = client.read(buffer);
-            if (bytesRead == -1) {
-                System.out.println("Connection closed by " + client.getRemoteAddress());
+                    if (head.hasRemaining()) {
+                        head.compact();
+                        break;
+                    }
+                    connection.outbound.pollFirst();
+                    bufferPool.release(head);
+                }
+
+                if (connection.outbound.isEmpty()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                } else if (connection.outbound.size() > MAX_OUTBOUND_BUFFERS) {
+                    // The client is not reading its responses: stop reading its orders until it catches up
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+
+            private void close(SelectionKey key) {
                 key.cancel();
-                client.close();
-                return;
+                releaseAttachment(key);
+                if (key.channel() instanceof SocketChannel) {
+                    connectionCount.decrementAndGet();
+                }
+                closeQuietly(key.channel());
             }
 
-            String message = new String(buffer.array(), 0, bytesRead).trim();
+            private void closeAll() {
+                registrations.forEach(this::closeQuietly);
+                registrations.clear();
+                for (SelectionKey key : selector.keys()) {
+                    releaseAttachment(key);
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector);
+                bufferPool.close();
+            }
 
-            String response;
-            try {
-                int order = Integer.parseInt(message);
-                response = "Thank you for ordering " + order + " pizzas!\n";
-            } catch (NumberFormatException e) {
-                response = "Wrong number of pizzas, please try again!\n";
+            private void releaseAttachment(SelectionKey key) {
+                if (key.attachment() instanceof Connection connection) {
+                    key.attach(null);
+                    connection.releaseOutbound();
+                }
             }
 
-            key.attach(response);
-            key.interestOps(SelectionKey.OP_WRITE);
-        }
+            private void closeQuietly(Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing channel: " + e.getMessage());
+                }
+            }
 
-        private void handleWrite(SelectionKey key) throws IOException {
-            SocketChannel client = (SocketChannel) key.channel();
-            String response = (String) key.attachment();
+            /**
+             * Per-connection state: the partial order still waiting for its newline and the responses
+             * not yet written. Responses are appended to the last outbound buffer while it has room.
+             */
+            private class Connection implements LineFrameDecoder.FrameHandler {
 
-            System.out.println("Sending message to " + client.getRemoteAddress());
+                private final LineFrameDecoder decoder = new LineFrameDecoder(MAX_FRAME_LENGTH);
+                private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
 
-            ByteBuffer buffer = ByteBuffer.wrap(response.getBytes());
-            client.write(buffer);
+                @Override
+                public void onFrame(ByteBuffer buffer, int from, int to) {
+                    ByteBuffer tail = outbound.peekLast();
+                    if (tail == null || tail.remaining() < MAX_RESPONSE_LENGTH) {
+                        tail = bufferPool.acquire();
+                        outbound.addLast(tail);
+                    }
 
-            key.interestOps(SelectionKey.OP_READ);
-        }
+                    long order = PizzaProtocol.parseOrder(buffer, from, to);
+                    if (order == PizzaProtocol.INVALID_ORDER) {
+                        tail.put(WRONG_ORDER);
+                    } else {
+                        PizzaProtocol.putResponse(tail, ORDER_PREFIX, order, ORDER_SUFFIX);
+                    }
+                }
 
-        public void stop() {
-            try {
-                selector.close();
-                serverChannel.close();
-                System.out.println("\nServer stopped.");
-            } catch (IOException e) {
-                System.err.println("Error stopping server: " + e.getMessage());
+                void releaseOutbound() {
+                    ByteBuffer buffer;
+                    while ((buffer = outbound.pollFirst()) != null) {
+                        bufferPool.release(buffer);
+                    }
+                }
             }
         }
     }
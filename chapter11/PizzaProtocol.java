@@ -0,0 +1,78 @@
+package chapter11;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses orders and writes responses straight from and into {@link ByteBuffer}s,
+ * so that serving a request does not create any {@link String}s.
+ */
+public final class PizzaProtocol {
+
+    public static final long INVALID_ORDER = Long.MIN_VALUE;
+
+    private PizzaProtocol() {
+    }
+
+    /**
+     * Parses the bytes between the absolute indices {@code from} (inclusive) and {@code to} (exclusive)
+     * the same way {@code Integer.parseInt(message.trim())} would.
+     *
+     * @return the order, or {@link #INVALID_ORDER} if the bytes are not a number
+     */
+    public static long parseOrder(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) <= ' ') {
+            from++;
+        }
+        while (to > from && buffer.get(to - 1) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return INVALID_ORDER;
+        }
+
+        boolean negative = false;
+        byte sign = buffer.get(from);
+        if (sign == '-' || sign == '+') {
+            negative = sign == '-';
+            if (++from == to) {
+                return INVALID_ORDER;
+            }
+        }
+
+        long order = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID_ORDER;
+            }
+            order = order * 10 + digit;
+            if (order > (long) Integer.MAX_VALUE + 1) {
+                return INVALID_ORDER;
+            }
+        }
+
+        order = negative ? -order : order;
+        return order < Integer.MIN_VALUE || order > Integer.MAX_VALUE ? INVALID_ORDER : order;
+    }
+
+    public static void putResponse(ByteBuffer buffer, byte[] prefix, long order, byte[] suffix) {
+        buffer.put(prefix);
+        putDecimal(buffer, order);
+        buffer.put(suffix);
+    }
+
+    private static void putDecimal(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package chapter12;
 
+import chapter11.BufferPool;
+import chapter11.LineFrameDecoder;
+import chapter11.PizzaProtocol;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MissionA {
 
@@ -28,11 +36,25 @@ public class MissionA {
     private static class AsyncPizzaServer {
 
         private static final int BUFFER_SIZE = 1024;
+        private static final int MAX_OUTBOUND_RESPONSES = 1024;
+        // Every queued response holds a buffer, and the read that fills the queue may add a buffer's worth of
+        // orders beyond the limit, so keep enough buffers for that without allocating
+        private static final int MAX_POOLED_BUFFERS = 2 * MAX_OUTBOUND_RESPONSES;
+        private static final int MAX_FRAME_LENGTH = BUFFER_SIZE;
+        // Logging every response allocates and serializes on the write path, so it is only done on request
+        private static final boolean LOG_RESPONSES = Boolean.getBoolean("pizza.logResponses");
         private static final String HOST = "127.0.0.1";
         private static final int PORT = 12345;
 
+        private static final byte[] ORDER_PREFIX = "Thank you for ordering ".getBytes();
+        private static final byte[] ORDER_SUFFIX = (" pizzas!" + System.lineSeparator()).getBytes();
+        private static final byte[] READY_PREFIX = "Your order of ".getBytes();
+        private static final byte[] READY_SUFFIX = (" pizzas is ready!" + System.lineSeparator()).getBytes();
+        private static final byte[] WRONG_ORDER = "Wrong number of pizzas, please try again\n".getBytes();
+
         private final AsynchronousServerSocketChannel serverChannel;
         private final ExecutorService executor;
+        private final BufferPool bufferPool = new BufferPool("AsyncPizzaServer-buffers", BUFFER_SIZE, MAX_POOLED_BUFFERS);
 
         static class Kitchen {
             static void cookPizza(int n) {
@@ -77,84 +99,260 @@ public class MissionA {
         }
 
         private void handleClient(AsynchronousSocketChannel clientChannel) {
-            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-            readFromClient(clientChannel, buffer);
-        }
-
-        private void readFromClient(AsynchronousSocketChannel clientChannel, ByteBuffer buffer) {
-            clientChannel.read(buffer, buffer, new CompletionHandler<>() {
-                @Override
-                public void completed(Integer result, ByteBuffer buffer) {
-                    if (result == -1) {
-                        closeConnection(clientChannel);
-                        return;
-                    }
+            try {
+                // The confirmation and the ready message go out as separate writes; without this, Nagle's
+                // algorithm holds the second one back until the client's delayed ACK for the first arrives
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                System.err.println("Error setting TCP_NODELAY: " + e.getMessage());
+            }
 
-                    buffer.flip();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
-                    String message = new String(data).trim();
+            new Connection(clientChannel).read();
+        }
 
-                    processOrder(clientChannel, message);
+        private void processOrder(Connection connection, long order) {
+            if (order == PizzaProtocol.INVALID_ORDER) {
+                ByteBuffer response = bufferPool.acquire();
+                response.put(WRONG_ORDER);
+                sendResponse(connection, response);
+                return;
+            }
 
-                    // Prepare for next read
-                    buffer.clear();
-                    readFromClient(clientChannel, buffer);
-                }
+            ByteBuffer response = bufferPool.acquire();
+            PizzaProtocol.putResponse(response, ORDER_PREFIX, order, ORDER_SUFFIX);
+            sendResponse(connection, response);
 
-                @Override
-                public void failed(Throwable exc, ByteBuffer buffer) {
-                    closeConnection(clientChannel);
-                }
+            // Cook pizzas in background
+            executor.execute(() -> {
+                Kitchen.cookPizza((int) order);
+                ByteBuffer completionResponse = bufferPool.acquire();
+                PizzaProtocol.putResponse(completionResponse, READY_PREFIX, order, READY_SUFFIX);
+                sendResponse(connection, completionResponse);
             });
         }
 
-        private void processOrder(AsynchronousSocketChannel clientChannel, String message) {
-            try {
-                int order = Integer.parseInt(message);
-                String response = String.format("Thank you for ordering %d pizzas!%n", order);
-                sendResponse(clientChannel, response);
-
-                // Cook pizzas in background
-                executor.execute(() -> {
-                    Kitchen.cookPizza(order);
-                    String completionResponse = String.format("Your order of %d pizzas is ready!%n", order);
-                    sendResponse(clientChannel, completionResponse);
-                });
-            } catch (NumberFormatException e) {
-                sendResponse(clientChannel, "Wrong number of pizzas, please try again\n");
+        /**
+         * Queues the response filled in by the caller; the buffer goes back to the pool once it is sent.
+         */
+        private void sendResponse(Connection connection, ByteBuffer response) {
+            if (LOG_RESPONSES) {
+                try {
+                    System.out.printf("Sending message to %s%n", connection.channel.getRemoteAddress());
+                } catch (IOException e) {
+                    System.err.println("Error getting remote address: " + e.getMessage());
+                }
             }
+
+            response.flip();
+            connection.send(response);
         }
 
-        private void sendResponse(AsynchronousSocketChannel clientChannel, String response) {
+        private void closeConnection(AsynchronousSocketChannel clientChannel) {
             try {
-                System.out.printf("Sending message to %s%n", clientChannel.getRemoteAddress());
+                System.out.printf("Connection with %s has been closed%n", clientChannel.getRemoteAddress());
+                clientChannel.close();
             } catch (IOException e) {
-                System.err.println("Error getting remote address: " + e.getMessage());
+                System.err.println("Error closing connection: " + e.getMessage());
             }
+        }
+
+        /**
+         * Per-connection state. Orders are split into lines by the decoder, and responses are queued so that
+         * only one write is outstanding at a time, as {@link AsynchronousSocketChannel} requires.
+         * Reading pauses while too many responses are waiting for a slow client.
+         */
+        private class Connection implements LineFrameDecoder.FrameHandler {
+
+            private final AsynchronousSocketChannel channel;
+            private final LineFrameDecoder decoder = new LineFrameDecoder(MAX_FRAME_LENGTH);
+            private final Queue<ByteBuffer> outbound = new ArrayDeque<>();
+            private final ReentrantLock lock = new ReentrantLock();
+
+            private final CompletionHandler<Integer, ByteBuffer> readHandler = new CompletionHandler<>() {
+                @Override
+                public void completed(Integer result, ByteBuffer buffer) {
+                    onRead(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, ByteBuffer buffer) {
+                    onReadFailed();
+                }
+            };
 
-            ByteBuffer buffer = ByteBuffer.wrap(response.getBytes());
-            clientChannel.write(buffer, buffer, new CompletionHandler<>() {
+            private final CompletionHandler<Integer, ByteBuffer> writeHandler = new CompletionHandler<>() {
                 @Override
                 public void completed(Integer result, ByteBuffer buffer) {
                     if (buffer.hasRemaining()) {
-                        clientChannel.write(buffer, buffer, this);
+                        channel.write(buffer, buffer, this);
+                    } else {
+                        onWritten(buffer);
                     }
                 }
 
                 @Override
                 public void failed(Throwable exc, ByteBuffer buffer) {
-                    closeConnection(clientChannel);
+                    bufferPool.release(buffer);
+                    close();
                 }
-            });
-        }
+            };
 
-        private void closeConnection(AsynchronousSocketChannel clientChannel) {
-            try {
-                System.out.printf("Connection with %s has been closed%n", clientChannel.getRemoteAddress());
-                clientChannel.close();
-            } catch (IOException e) {
-                System.err.println("Error closing connection: " + e.getMessage());
+            private ByteBuffer readBuffer;
+            private boolean reading;
+            private boolean readPaused;
+            private boolean writing;
+            private boolean closed;
+
+            Connection(AsynchronousSocketChannel channel) {
+                this.channel = channel;
+                this.readBuffer = bufferPool.acquire();
+            }
+
+            @Override
+            public void onFrame(ByteBuffer buffer, int from, int to) {
+                processOrder(this, PizzaProtocol.parseOrder(buffer, from, to));
+            }
+
+            void read() {
+                boolean open;
+                lock.lock();
+                try {
+                    open = !closed;
+                    reading = open;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (open) {
+                    channel.read(readBuffer, readBuffer, readHandler);
+                } else {
+                    close();
+                }
+            }
+
+            private void onRead(int result) {
+                // Still marked as reading, so a close() meanwhile leaves the buffer to this method
+                boolean endOfOrders = result == -1;
+                if (!endOfOrders) {
+                    readBuffer.flip();
+                    try {
+                        decoder.decode(readBuffer, this);
+                    } catch (IOException e) {
+                        System.err.println("Invalid order: " + e.getMessage());
+                        endOfOrders = true;
+                    }
+
+                    // Prepare for next read
+                    readBuffer.clear();
+                }
+
+                boolean closing;
+                boolean backlogged = false;
+                lock.lock();
+                try {
+                    reading = false;
+                    closing = endOfOrders || closed;
+                    if (!closing) {
+                        backlogged = outbound.size() > MAX_OUTBOUND_RESPONSES;
+                        readPaused = backlogged;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (closing) {
+                    // Releases the read buffer, now that nothing reads into it any more
+                    close();
+                } else if (!backlogged) {
+                    read();
+                }
+            }
+
+            private void onReadFailed() {
+                lock.lock();
+                try {
+                    reading = false;
+                } finally {
+                    lock.unlock();
+                }
+                close();
+            }
+
+            void send(ByteBuffer response) {
+                boolean writeNow = false;
+                lock.lock();
+                try {
+                    if (!closed) {
+                        writeNow = !writing;
+                        writing = true;
+                        if (!writeNow) {
+                            outbound.add(response);
+                            return;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (writeNow) {
+                    channel.write(response, response, writeHandler);
+                } else {
+                    bufferPool.release(response);
+                }
+            }
+
+            private void onWritten(ByteBuffer buffer) {
+                bufferPool.release(buffer);
+
+                ByteBuffer next;
+                boolean resumeReading = false;
+                lock.lock();
+                try {
+                    next = closed ? null : outbound.poll();
+                    writing = next != null;
+                    if (readPaused && outbound.size() <= MAX_OUTBOUND_RESPONSES / 2) {
+                        readPaused = false;
+                        resumeReading = true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (next != null) {
+                    channel.write(next, next, writeHandler);
+                }
+                if (resumeReading) {
+                    read();
+                }
+            }
+
+            void close() {
+                boolean firstClose;
+                ByteBuffer idleReadBuffer = null;
+                lock.lock();
+                try {
+                    firstClose = !closed;
+                    closed = true;
+
+                    ByteBuffer queued;
+                    while ((queued = outbound.poll()) != null) {
+                        bufferPool.release(queued);
+                    }
+                    // A read in progress still owns its buffer; it calls close() again once it is done with it
+                    if (!reading && readBuffer != null) {
+                        idleReadBuffer = readBuffer;
+                        readBuffer = null;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (idleReadBuffer != null) {
+                    bufferPool.release(idleReadBuffer);
+                }
+                if (firstClose) {
+                    closeConnection(channel);
+                }
             }
         }
 